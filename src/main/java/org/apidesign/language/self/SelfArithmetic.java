@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.apidesign.language.self;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.ImportStatic;
+import com.oracle.truffle.api.dsl.NodeChild;
+import com.oracle.truffle.api.dsl.NodeChildren;
+import com.oracle.truffle.api.dsl.Specialization;
+import java.math.BigInteger;
+
+/** Arithmetic and comparison of numbers. Used as the code of slots of the
+ * numbers prototype as well as directly at the place of a binary send:
+ * when the receiver isn't a number, a regular message is sent.
+ */
+@ImportStatic(SelfTypes.class)
+@NodeChildren({ @NodeChild("receiver"), @NodeChild("argument") })
+abstract class SelfArithmetic extends SelfCode {
+    static final String[] SELECTORS = { "+", "-", "*", "<" };
+
+    final SelfPrimitives primitives;
+    final SelfSelector selector;
+
+    SelfArithmetic(SelfPrimitives primitives, SelfSelector selector) {
+        this.primitives = primitives;
+        this.selector = selector;
+    }
+
+    /** Creates node for given binary selector.
+     * @return the node or {@code null} if the selector isn't arithmetic
+     */
+    static SelfCode create(SelfPrimitives primitives, SelfSelector selector, SelfCode receiver, SelfCode argument) {
+        switch (selector.toString()) {
+            case "+":
+                return SelfArithmeticNodeGen.AddNodeGen.create(primitives, selector, receiver, argument);
+            case "-":
+                return SelfArithmeticNodeGen.SubNodeGen.create(primitives, selector, receiver, argument);
+            case "*":
+                return SelfArithmeticNodeGen.MulNodeGen.create(primitives, selector, receiver, argument);
+            case "<":
+                return SelfArithmeticNodeGen.LessNodeGen.create(primitives, selector, receiver, argument);
+            default:
+                return null;
+        }
+    }
+
+    @Specialization(guards = "!isNumber(receiver)")
+    Object send(
+        Object receiver, Object argument,
+        @Cached("create(primitives, selector)") Lookup lookup,
+        @Cached("create()") Invoke invoke
+    ) {
+        return dispatch(lookup, invoke, frameArguments(receiver, null, argument));
+    }
+
+    abstract static class Add extends SelfArithmetic {
+        Add(SelfPrimitives primitives, SelfSelector selector) {
+            super(primitives, selector);
+        }
+
+        @Specialization(rewriteOn = ArithmeticException.class)
+        static int addInt(int a, int b) {
+            return Math.addExact(a, b);
+        }
+
+        /** Results fitting into {@code int} are narrowed back. */
+        @Specialization(rewriteOn = ArithmeticException.class)
+        Object addLong(long a, long b) {
+            return primitives.valueOf(Math.addExact(a, b));
+        }
+
+        @Specialization
+        @CompilerDirectives.TruffleBoundary
+        Object addBigInteger(BigInteger a, BigInteger b) {
+            return primitives.valueOf(a.add(b));
+        }
+
+        @Specialization
+        static double addDouble(double a, double b) {
+            return a + b;
+        }
+
+        @Fallback
+        @CompilerDirectives.TruffleBoundary
+        static Object illegal(Object a, Object b) {
+            throw new IllegalStateException(a + " + " + b);
+        }
+    }
+
+    abstract static class Sub extends SelfArithmetic {
+        Sub(SelfPrimitives primitives, SelfSelector selector) {
+            super(primitives, selector);
+        }
+
+        @Specialization(rewriteOn = ArithmeticException.class)
+        static int subInt(int a, int b) {
+            return Math.subtractExact(a, b);
+        }
+
+        /** Results fitting into {@code int} are narrowed back. */
+        @Specialization(rewriteOn = ArithmeticException.class)
+        Object subLong(long a, long b) {
+            return primitives.valueOf(Math.subtractExact(a, b));
+        }
+
+        @Specialization
+        @CompilerDirectives.TruffleBoundary
+        Object subBigInteger(BigInteger a, BigInteger b) {
+            return primitives.valueOf(a.subtract(b));
+        }
+
+        @Specialization
+        static double subDouble(double a, double b) {
+            return a - b;
+        }
+
+        @Fallback
+        @CompilerDirectives.TruffleBoundary
+        static Object illegal(Object a, Object b) {
+            throw new IllegalStateException(a + " - " + b);
+        }
+    }
+
+    abstract static class Mul extends SelfArithmetic {
+        Mul(SelfPrimitives primitives, SelfSelector selector) {
+            super(primitives, selector);
+        }
+
+        @Specialization(rewriteOn = ArithmeticException.class)
+        static int mulInt(int a, int b) {
+            return Math.multiplyExact(a, b);
+        }
+
+        /** Results fitting into {@code int} are narrowed back. */
+        @Specialization(rewriteOn = ArithmeticException.class)
+        Object mulLong(long a, long b) {
+            return primitives.valueOf(Math.multiplyExact(a, b));
+        }
+
+        @Specialization
+        @CompilerDirectives.TruffleBoundary
+        Object mulBigInteger(BigInteger a, BigInteger b) {
+            return primitives.valueOf(a.multiply(b));
+        }
+
+        @Specialization
+        static double mulDouble(double a, double b) {
+            return a * b;
+        }
+
+        @Fallback
+        @CompilerDirectives.TruffleBoundary
+        static Object illegal(Object a, Object b) {
+            throw new IllegalStateException(a + " * " + b);
+        }
+    }
+
+    abstract static class Less extends SelfArithmetic {
+        Less(SelfPrimitives primitives, SelfSelector selector) {
+            super(primitives, selector);
+        }
+
+        @Specialization
+        SelfObject lessInt(int a, int b) {
+            return primitives.valueOf(a < b);
+        }
+
+        @Specialization
+        SelfObject lessLong(long a, long b) {
+            return primitives.valueOf(a < b);
+        }
+
+        @Specialization
+        SelfObject lessBigInteger(BigInteger a, BigInteger b) {
+            return primitives.valueOf(compare(a, b) < 0);
+        }
+
+        @Specialization
+        SelfObject lessDouble(double a, double b) {
+            return primitives.valueOf(a < b);
+        }
+
+        @Fallback
+        SelfObject incomparable(Object a, Object b) {
+            return primitives.valueOf(false);
+        }
+
+        @CompilerDirectives.TruffleBoundary
+        private static int compare(BigInteger a, BigInteger b) {
+            return a.compareTo(b);
+        }
+    }
+}
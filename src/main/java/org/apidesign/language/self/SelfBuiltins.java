@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.apidesign.language.self;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.NodeChild;
+import com.oracle.truffle.api.dsl.NodeChildren;
+import com.oracle.truffle.api.dsl.Specialization;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Registry of primitives. Sends of registered selectors, all starting
+ * with {@code _}, are bound to their node when parsed, no lookup happens
+ * at runtime. Other selectors, including unknown {@code _} ones, are
+ * regular messages.
+ */
+final class SelfBuiltins {
+    @FunctionalInterface
+    interface Factory {
+        SelfCode create(SelfPrimitives primitives, SelfSelector selector, SelfCode receiver, SelfCode[] args);
+    }
+
+    private static final Map<SelfSelector, Factory> REGISTRY = new HashMap<>();
+    static {
+        register("_IntAdd:", (primitives, selector, receiver, args) -> SelfBuiltinsFactory.IntAddNodeGen.create(primitives, selector, receiver, args[0]));
+        register("_IntSub:", (primitives, selector, receiver, args) -> SelfBuiltinsFactory.IntSubNodeGen.create(primitives, selector, receiver, args[0]));
+        register("_IntMul:", (primitives, selector, receiver, args) -> SelfBuiltinsFactory.IntMulNodeGen.create(primitives, selector, receiver, args[0]));
+        register("_IntLT:", (primitives, selector, receiver, args) -> SelfBuiltinsFactory.IntLTNodeGen.create(primitives, selector, receiver, args[0]));
+        register("_Eq:", (primitives, selector, receiver, args) -> SelfBuiltinsFactory.EqNodeGen.create(primitives, receiver, args[0]));
+        register("_Clone", (primitives, selector, receiver, args) -> SelfBuiltinsFactory.CloneNodeGen.create(primitives, receiver));
+        register("_At:", (primitives, selector, receiver, args) -> SelfBuiltinsFactory.AtNodeGen.create(primitives, receiver, args[0]));
+        register("_Vector", (primitives, selector, receiver, args) -> SelfCode.constant(primitives.emptyVector()));
+        register("_ByteVector", (primitives, selector, receiver, args) -> SelfCode.constant(primitives.emptyByteVector()));
+    }
+
+    private SelfBuiltins() {
+    }
+
+    private static void register(String name, Factory factory) {
+        REGISTRY.put(SelfSelector.keyword(name), factory);
+    }
+
+    static boolean isPrimitive(SelfSelector selector) {
+        return REGISTRY.containsKey(selector);
+    }
+
+    static SelfCode create(SelfPrimitives primitives, SelfSelector selector, SelfCode receiver, SelfCode... args) {
+        Factory factory = REGISTRY.get(selector);
+        if (factory == null) {
+            throw new IllegalStateException("Unknown primitive " + selector);
+        }
+        return factory.create(primitives, selector, receiver, args);
+    }
+
+    /** Integer primitives. Unlike arithmetic messages they never send
+     * anything and fail when an operand isn't an integer. Results grow
+     * from {@code int} to {@code long} to {@link BigInteger} as needed.
+     */
+    @NodeChildren({ @NodeChild("receiver"), @NodeChild("argument") })
+    abstract static class IntPrimitive extends SelfCode {
+        final SelfPrimitives primitives;
+        final SelfSelector selector;
+
+        IntPrimitive(SelfPrimitives primitives, SelfSelector selector) {
+            this.primitives = primitives;
+            this.selector = selector;
+        }
+
+        @Fallback
+        @CompilerDirectives.TruffleBoundary
+        Object failed(Object a, Object b) {
+            throw new IllegalStateException(selector + " failed for " + a + " and " + b);
+        }
+    }
+
+    abstract static class IntAdd extends IntPrimitive {
+        IntAdd(SelfPrimitives primitives, SelfSelector selector) {
+            super(primitives, selector);
+        }
+
+        @Specialization(rewriteOn = ArithmeticException.class)
+        static int addInt(int a, int b) {
+            return Math.addExact(a, b);
+        }
+
+        @Specialization(rewriteOn = ArithmeticException.class)
+        Object addLong(long a, long b) {
+            return primitives.valueOf(Math.addExact(a, b));
+        }
+
+        @Specialization
+        @CompilerDirectives.TruffleBoundary
+        Object addBigInteger(BigInteger a, BigInteger b) {
+            return primitives.valueOf(a.add(b));
+        }
+    }
+
+    abstract static class IntSub extends IntPrimitive {
+        IntSub(SelfPrimitives primitives, SelfSelector selector) {
+            super(primitives, selector);
+        }
+
+        @Specialization(rewriteOn = ArithmeticException.class)
+        static int subInt(int a, int b) {
+            return Math.subtractExact(a, b);
+        }
+
+        @Specialization(rewriteOn = ArithmeticException.class)
+        Object subLong(long a, long b) {
+            return primitives.valueOf(Math.subtractExact(a, b));
+        }
+
+        @Specialization
+        @CompilerDirectives.TruffleBoundary
+        Object subBigInteger(BigInteger a, BigInteger b) {
+            return primitives.valueOf(a.subtract(b));
+        }
+    }
+
+    abstract static class IntMul extends IntPrimitive {
+        IntMul(SelfPrimitives primitives, SelfSelector selector) {
+            super(primitives, selector);
+        }
+
+        @Specialization(rewriteOn = ArithmeticException.class)
+        static int mulInt(int a, int b) {
+            return Math.multiplyExact(a, b);
+        }
+
+        @Specialization(rewriteOn = ArithmeticException.class)
+        Object mulLong(long a, long b) {
+            return primitives.valueOf(Math.multiplyExact(a, b));
+        }
+
+        @Specialization
+        @CompilerDirectives.TruffleBoundary
+        Object mulBigInteger(BigInteger a, BigInteger b) {
+            return primitives.valueOf(a.multiply(b));
+        }
+    }
+
+    abstract static class IntLT extends IntPrimitive {
+        IntLT(SelfPrimitives primitives, SelfSelector selector) {
+            super(primitives, selector);
+        }
+
+        @Specialization
+        SelfObject lessInt(int a, int b) {
+            return primitives.valueOf(a < b);
+        }
+
+        @Specialization
+        SelfObject lessLong(long a, long b) {
+            return primitives.valueOf(a < b);
+        }
+
+        @Specialization
+        @CompilerDirectives.TruffleBoundary
+        SelfObject lessBigInteger(BigInteger a, BigInteger b) {
+            return primitives.valueOf(a.compareTo(b) < 0);
+        }
+    }
+
+    /** Shallow copy of an object sharing the values with the original
+     * until the first assignment. Booleans, texts, primitive prototypes
+     * and other values are immutable and clone to themselves.
+     */
+    @NodeChild("receiver")
+    abstract static class Clone extends SelfCode {
+        final SelfPrimitives primitives;
+
+        Clone(SelfPrimitives primitives) {
+            this.primitives = primitives;
+        }
+
+        abstract Object executeClone(Object receiver);
+
+        @Specialization(guards = "primitives.isImmutable(receiver)")
+        static Object cloneImmutable(SelfObject receiver) {
+            return receiver;
+        }
+
+        @Specialization(guards = "!primitives.isImmutable(receiver)")
+        static Object cloneObject(SelfObject receiver) {
+            return receiver.copy();
+        }
+
+        @Fallback
+        static Object cloneValue(Object receiver) {
+            return receiver;
+        }
+    }
+
+    /** Identity of objects, equality of numbers. */
+    @NodeChildren({ @NodeChild("receiver"), @NodeChild("argument") })
+    abstract static class Eq extends SelfCode {
+        final SelfPrimitives primitives;
+
+        Eq(SelfPrimitives primitives) {
+            this.primitives = primitives;
+        }
+
+        @Specialization
+        SelfObject eqInt(int a, int b) {
+            return primitives.valueOf(a == b);
+        }
+
+        @Specialization
+        SelfObject eqLong(long a, long b) {
+            return primitives.valueOf(a == b);
+        }
+
+        @Specialization
+        SelfObject eqBigInteger(BigInteger a, BigInteger b) {
+            return primitives.valueOf(equals(a, b));
+        }
+
+        @Specialization
+        SelfObject eqDouble(double a, double b) {
+            return primitives.valueOf(a == b);
+        }
+
+        @Fallback
+        SelfObject identical(Object a, Object b) {
+            return primitives.valueOf(a == b);
+        }
+
+        @CompilerDirectives.TruffleBoundary
+        private static boolean equals(BigInteger a, BigInteger b) {
+            return a.equals(b);
+        }
+    }
+
+    /** Element of a vector or character of a text at given index. */
+    @NodeChildren({ @NodeChild("receiver"), @NodeChild("index") })
+    abstract static class At extends SelfCode {
+        final SelfPrimitives primitives;
+
+        At(SelfPrimitives primitives) {
+            this.primitives = primitives;
+        }
+
+        @Specialization
+        static Object atVector(SelfVector receiver, int index, @Cached("create()") SelfVector.At at) {
+            return at.executeAt(receiver, index);
+        }
+
+        @Specialization
+        static Object atBytes(SelfByteVector receiver, int index, @Cached("create()") SelfByteVector.At at) {
+            return at.executeAt(receiver, index);
+        }
+
+        @Specialization
+        Object atText(SelfObject receiver, int index) {
+            return primitives.valueOf(charAt(receiver, index));
+        }
+
+        @Fallback
+        @CompilerDirectives.TruffleBoundary
+        static Object failed(Object receiver, Object index) {
+            throw new IllegalStateException("_At: " + index + " failed for " + receiver);
+        }
+
+        @CompilerDirectives.TruffleBoundary
+        private static String charAt(SelfObject receiver, int index) {
+            Object value = SelfObject.findWrappedValue(receiver).orElse(null);
+            if (!(value instanceof String)) {
+                throw new IllegalStateException("_At: " + index + " failed for " + receiver);
+            }
+            final String text = (String) value;
+            if (index < 0 || index >= text.length()) {
+                throw new IllegalStateException("_At: " + index + " failed for " + receiver);
+            }
+            return String.valueOf(text.charAt(index));
+        }
+    }
+}
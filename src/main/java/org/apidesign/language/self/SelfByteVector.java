@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.apidesign.language.self;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.NodeChild;
+import com.oracle.truffle.api.dsl.NodeChildren;
+import com.oracle.truffle.api.dsl.Specialization;
+import java.nio.ByteBuffer;
+
+/** Vector of bytes kept off heap in a direct or memory mapped
+ * {@link ByteBuffer}. Elements are integers from {@code 0} to {@code 255}.
+ * Only absolute indexes are used, the position of the buffer is ignored.
+ * Read only buffers of the host can be wrapped, but not modified.
+ */
+final class SelfByteVector extends SelfObject {
+    private static final ByteBuffer NO_BYTES = ByteBuffer.allocateDirect(0);
+
+    private final ByteBuffer buffer;
+    private final boolean readOnly;
+
+    private SelfByteVector(SelfObject parent, ByteBuffer buffer) {
+        super(parent);
+        this.buffer = buffer;
+        this.readOnly = buffer.isReadOnly();
+    }
+
+    static SelfByteVector empty(SelfObject parent) {
+        return new SelfByteVector(parent, NO_BYTES);
+    }
+
+    /** Byte vector sharing content of the buffer from its position to its limit. */
+    @CompilerDirectives.TruffleBoundary
+    static SelfByteVector wrap(SelfObject parent, ByteBuffer buffer) {
+        return new SelfByteVector(parent, buffer.slice());
+    }
+
+    int size() {
+        return buffer.capacity();
+    }
+
+    boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /** Concrete class of the buffer, for nodes to profile. */
+    Class<? extends ByteBuffer> bufferClass() {
+        return buffer.getClass();
+    }
+
+    int get(int index) {
+        return buffer.get(index) & 0xff;
+    }
+
+    /** Reads a byte from a buffer known to be of the given class. */
+    int get(Class<? extends ByteBuffer> exact, int index) {
+        return CompilerDirectives.castExact(buffer, exact).get(index) & 0xff;
+    }
+
+    void put(int index, int value) {
+        buffer.put(index, (byte) value);
+    }
+
+    /** Writes a byte into a buffer known to be of the given class. */
+    void put(Class<? extends ByteBuffer> exact, int index, int value) {
+        CompilerDirectives.castExact(buffer, exact).put(index, (byte) value);
+    }
+
+    /** Read only view of the content, to be shared with other languages. */
+    @CompilerDirectives.TruffleBoundary
+    ByteBuffer asReadOnlyBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /** Copy in a new direct buffer. New elements are zero. */
+    @CompilerDirectives.TruffleBoundary
+    SelfByteVector copySize(int size) {
+        if (size < 0) {
+            throw new IllegalStateException("Negative size " + size);
+        }
+        final ByteBuffer copy = ByteBuffer.allocateDirect(size);
+        copy.put(range(buffer, 0, Math.min(size, size())));
+        return new SelfByteVector(parent(), copy);
+    }
+
+    /** Copies {@code length} bytes of the source starting at {@code from}
+     * to this vector starting at {@code index}.
+     */
+    @CompilerDirectives.TruffleBoundary
+    void putAll(int index, SelfByteVector source, int from, int length) {
+        if (readOnly) {
+            throw new IllegalStateException("Cannot copy into read only " + this);
+        }
+        if (length < 0 || index < 0 || from < 0 || index + length > size() || from + length > source.size()) {
+            throw new IllegalStateException("Cannot copy " + length + " bytes from " + from + " to " + index);
+        }
+        range(buffer, index, length).put(range(source.buffer, from, length));
+    }
+
+    private static ByteBuffer range(ByteBuffer buffer, int from, int length) {
+        final ByteBuffer view = buffer.duplicate();
+        view.limit(from + length).position(from);
+        return view;
+    }
+
+    @Override
+    SelfObject copy() {
+        return copySize(size());
+    }
+
+    @Override
+    public String toString() {
+        return (readOnly ? "readOnlyByteVector[" : "byteVector[") + size() + "]";
+    }
+
+    static void checkIndex(SelfByteVector vector, int index) {
+        if (index < 0 || index >= vector.size()) {
+            CompilerDirectives.transferToInterpreter();
+            throw new IllegalStateException("Index " + index + " out of bounds of " + vector);
+        }
+    }
+
+    /** Byte at given index. */
+    @NodeChildren({ @NodeChild("receiver"), @NodeChild("index") })
+    abstract static class At extends SelfCode {
+        abstract Object executeAt(Object receiver, Object index);
+
+        static At create() {
+            return SelfByteVectorFactory.AtNodeGen.create(null, null);
+        }
+
+        @Specialization(guards = "vector.bufferClass() == bufferClass", limit = "2")
+        static int atExact(
+            SelfByteVector vector, int index,
+            @Cached("vector.bufferClass()") Class<? extends ByteBuffer> bufferClass
+        ) {
+            checkIndex(vector, index);
+            return vector.get(bufferClass, index);
+        }
+
+        @Specialization(replaces = "atExact")
+        static int at(SelfByteVector vector, int index) {
+            checkIndex(vector, index);
+            return vector.get(index);
+        }
+
+        @Fallback
+        static Object failed(Object receiver, Object index) {
+            throw SelfVector.notVector("at:", receiver);
+        }
+    }
+
+    /** Stores a byte and returns the vector. Fails for read only vectors. */
+    @NodeChildren({ @NodeChild("receiver"), @NodeChild("index"), @NodeChild("value") })
+    abstract static class AtPut extends SelfCode {
+        @Specialization(guards = {
+            "isByte(value)",
+            "!vector.isReadOnly()",
+            "vector.bufferClass() == bufferClass"
+        }, limit = "2")
+        static Object putExact(
+            SelfByteVector vector, int index, int value,
+            @Cached("vector.bufferClass()") Class<? extends ByteBuffer> bufferClass
+        ) {
+            checkIndex(vector, index);
+            vector.put(bufferClass, index, value);
+            return vector;
+        }
+
+        @Specialization(guards = { "isByte(value)", "!vector.isReadOnly()" }, replaces = "putExact")
+        static Object put(SelfByteVector vector, int index, int value) {
+            checkIndex(vector, index);
+            vector.put(index, value);
+            return vector;
+        }
+
+        @Fallback
+        static Object failed(Object receiver, Object index, Object value) {
+            throw SelfVector.notVector("at:Put:", receiver);
+        }
+
+        static boolean isByte(int value) {
+            return value >= 0 && value <= 255;
+        }
+    }
+
+    /** Bulk copy from another byte vector. */
+    @NodeChildren({ @NodeChild("receiver"), @NodeChild("index"), @NodeChild("source"), @NodeChild("from"), @NodeChild("length") })
+    abstract static class PutAll extends SelfCode {
+        @Specialization
+        static Object putAll(SelfByteVector vector, int index, SelfByteVector source, int from, int length) {
+            vector.putAll(index, source, from, length);
+            return vector;
+        }
+
+        @Fallback
+        static Object failed(Object receiver, Object index, Object source, Object from, Object length) {
+            throw SelfVector.notVector("at:PutAll:From:Size:", receiver);
+        }
+    }
+
+    @NodeChild("receiver")
+    abstract static class Size extends SelfCode {
+        @Specialization
+        static int size(SelfByteVector vector) {
+            return vector.size();
+        }
+
+        @Fallback
+        static Object failed(Object receiver) {
+            throw SelfVector.notVector("size", receiver);
+        }
+    }
+
+    @NodeChildren({ @NodeChild("receiver"), @NodeChild("size") })
+    abstract static class CopySize extends SelfCode {
+        @Specialization
+        static Object copySize(SelfByteVector vector, int size) {
+            return vector.copySize(size);
+        }
+
+        @Fallback
+        static Object failed(Object receiver, Object size) {
+            throw SelfVector.notVector("copySize:", receiver);
+        }
+    }
+
+    /** The content as a read only {@link ByteBuffer} for the host. */
+    @NodeChild("receiver")
+    abstract static class Buffer extends SelfCode {
+        @Specialization
+        static Object buffer(SelfByteVector vector) {
+            return SelfLanguage.asGuestValue(vector.asReadOnlyBuffer());
+        }
+
+        @Fallback
+        static Object failed(Object receiver) {
+            throw SelfVector.notVector("buffer", receiver);
+        }
+    }
+}
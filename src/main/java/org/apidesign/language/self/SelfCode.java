@@ -40,23 +40,85 @@
  */
 package org.apidesign.language.self;
 
+import com.oracle.truffle.api.Assumption;
 import com.oracle.truffle.api.CallTarget;
 import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.RootCallTarget;
 import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.dsl.TypeSystemReference;
+import com.oracle.truffle.api.frame.Frame;
+import com.oracle.truffle.api.frame.FrameDescriptor;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.FrameSlotKind;
+import com.oracle.truffle.api.frame.FrameUtil;
+import com.oracle.truffle.api.frame.MaterializedFrame;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.interop.UnknownIdentifierException;
+import com.oracle.truffle.api.nodes.ControlFlowException;
+import com.oracle.truffle.api.nodes.DirectCallNode;
 import com.oracle.truffle.api.nodes.ExplodeLoop;
+import com.oracle.truffle.api.nodes.IndirectCallNode;
+import com.oracle.truffle.api.nodes.LoopNode;
 import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.nodes.NodeUtil;
+import com.oracle.truffle.api.nodes.RepeatingNode;
 import com.oracle.truffle.api.nodes.RootNode;
+import com.oracle.truffle.api.nodes.UnexpectedResultException;
+import com.oracle.truffle.api.profiles.ConditionProfile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.function.BiFunction;
 
+@TypeSystemReference(SelfTypes.class)
 abstract class SelfCode extends Node {
+    /** Index of the receiver in arguments of every Self call target. */
+    static final int SELF = 0;
+    /** Index of the lexically enclosing {@link MaterializedFrame} or {@code null}. */
+    static final int OUTER = 1;
+    /** Index of the first argument of the message. */
+    static final int ARGUMENTS = 2;
 
-    abstract SelfObject executeMessage(VirtualFrame frame, SelfObject self, Object... args);
+    abstract Object executeMessage(VirtualFrame frame);
+
+    int executeInt(VirtualFrame frame) throws UnexpectedResultException {
+        return SelfTypesGen.expectInteger(executeMessage(frame));
+    }
+
+    long executeLong(VirtualFrame frame) throws UnexpectedResultException {
+        return SelfTypesGen.expectLong(executeMessage(frame));
+    }
+
+    double executeDouble(VirtualFrame frame) throws UnexpectedResultException {
+        return SelfTypesGen.expectDouble(executeMessage(frame));
+    }
 
     @CompilerDirectives.TruffleBoundary(allowInlining = true)
-    static SelfCode constant(SelfObject obj) {
-        return new Constant(obj);
+    static SelfCode constant(Object value) {
+        if (value instanceof SelfObject) {
+            final SelfObject obj = (SelfObject) value;
+            if (obj.isBlock()) {
+                return new BlockLiteral(obj);
+            }
+            if (obj.code() != null) {
+                Root root = (Root) ((RootCallTarget) obj.code()).getRootNode();
+                if (obj.layout().size() == 0) {
+                    // no slots: ( expr ) is just a parenthesized expression
+                    return root.copyCode();
+                }
+                return new InnerMethod(obj);
+            }
+            if (obj.layout().hasAssignable()) {
+                return new ObjectLiteral(obj);
+            }
+        }
+        return new Constant(value);
     }
 
     @CompilerDirectives.TruffleBoundary(allowInlining = true)
@@ -69,41 +131,251 @@ abstract class SelfCode extends Node {
         return new Self();
     }
 
+    /** Receiver of {@code resend.} prefixed sends.
+     * @param parent name of the parent slot for a directed resend or {@code null}
+     */
+    @CompilerDirectives.TruffleBoundary(allowInlining = true)
+    static SelfCode resend(SelfSelector parent) {
+        return new ResendTarget(parent);
+    }
+
+    /** Binds resends in methods of a just created object literal to the
+     * slots holding the methods. At run time the resends search the
+     * receiver for the object holding the method and start their lookups
+     * at its parents.
+     */
+    @CompilerDirectives.TruffleBoundary
+    static void bindResends(SelfObject holder) {
+        for (int i = 0; i < holder.layout().size(); i++) {
+            Object value = holder.valueAt(i);
+            if (value instanceof SelfObject && ((SelfObject) value).isMethod()) {
+                final SelfObject method = (SelfObject) value;
+                bindResends(((RootCallTarget) method.code()).getRootNode(), holder, holder.layout().name(i), method);
+            }
+        }
+    }
+
+    private static void bindResends(Node node, SelfObject holder, SelfSelector slot, SelfObject method) {
+        NodeUtil.forEachChild(node, (child) -> {
+            if (child instanceof Resend) {
+                ((Resend) child).lookup.bind(holder, slot, method);
+            } else if (child instanceof BlockLiteral) {
+                bindResends(((RootCallTarget) ((BlockLiteral) child).block.code()).getRootNode(), holder, slot, method);
+            } else if (child instanceof InnerMethod) {
+                bindResends(((RootCallTarget) ((InnerMethod) child).call.getCallTarget()).getRootNode(), holder, slot, method);
+            }
+            bindResends(child, holder, slot, method);
+            return true;
+        });
+    }
+
+    /** Code of a method. Catches {@code ^} returns when there are any and
+     * marks sends in tail position.
+     */
+    static SelfCode method(SelfCode body) {
+        markTail(body, !materializes(body));
+        return hasReturn(body) ? new ReturnTarget(body) : body;
+    }
+
+    /** Marks or unmarks sends whose result is the result of the method.
+     * When such send finds the method it is in, it doesn't call it, but
+     * restarts the activation with new arguments.
+     */
+    private static void markTail(SelfCode code, boolean tail) {
+        if (code instanceof Message) {
+            ((Message) code).tail(tail);
+        } else if (code instanceof ImplicitMessage) {
+            ((ImplicitMessage) code).tail = tail;
+        } else if (code instanceof ImplicitAssignment) {
+            ((ImplicitAssignment) code).tail = tail;
+        } else if (code instanceof Block) {
+            final SelfCode[] children = ((Block) code).children;
+            if (children.length > 0) {
+                markTail(children[children.length - 1], tail);
+            }
+        } else if (code instanceof Conditional) {
+            markTail(((Conditional) code).whenTrue, tail);
+            markTail(((Conditional) code).whenFalse, tail);
+        } else if (code instanceof ReturnTarget) {
+            markTail(((ReturnTarget) code).body, tail);
+        }
+    }
+
+    /** Can the activation frame outlive a send? Blocks and inner methods
+     * get the materialized frame. Such an activation can't be restarted
+     * by a {@link TailCall}, as it reuses the frame. Blocks kept by
+     * a {@link Conditional} are only created when {@code true} or
+     * {@code false} change, which they never do.
+     */
+    private static boolean materializes(Node node) {
+        if (node == null) {
+            return false;
+        }
+        if (node instanceof BlockLiteral || node instanceof InnerMethod) {
+            return true;
+        }
+        if (node instanceof Conditional) {
+            final Conditional c = (Conditional) node;
+            return materializes(c.receiver) || materializes(c.whenTrue) || materializes(c.whenFalse);
+        }
+        boolean[] found = { false };
+        NodeUtil.forEachChild(node, (child) -> {
+            found[0] = materializes(child);
+            return !found[0];
+        });
+        return found[0];
+    }
+
+    private static boolean hasReturn(Node node) {
+        boolean[] found = { false };
+        NodeUtil.forEachChild(node, (child) -> {
+            if (child instanceof Return) {
+                found[0] = true;
+            } else if (child instanceof BlockLiteral) {
+                found[0] = hasReturn(rootOf(((BlockLiteral) child).block));
+            }
+            if (!found[0]) {
+                found[0] = hasReturn(child);
+            }
+            return !found[0];
+        });
+        return found[0];
+    }
+
+    /** Returns from the method activation the code is lexically in. */
+    @CompilerDirectives.TruffleBoundary(allowInlining = true)
+    static SelfCode nonLocalReturn(SelfCode value) {
+        return new Return(value);
+    }
+
+    @CompilerDirectives.TruffleBoundary(allowInlining = true)
+    static SelfCode argument(int index) {
+        return new Argument(index);
+    }
+
     @CompilerDirectives.TruffleBoundary(allowInlining = true)
     static SelfCode block(SelfCode... children) {
         return new Block(children);
     }
 
     @CompilerDirectives.TruffleBoundary(allowInlining = true)
-    static SelfCode unaryMessage(SelfCode receiver, SelfSelector message) {
-        return new Message(receiver, message);
+    static SelfCode unaryMessage(SelfPrimitives primitives, SelfCode receiver, SelfSelector message) {
+        if (SelfBuiltins.isPrimitive(message)) {
+            return SelfBuiltins.create(primitives, message, receiver);
+        }
+        if (receiver instanceof ResendTarget) {
+            return ((ResendTarget) receiver).send(primitives, message);
+        }
+        if (receiver instanceof Self) {
+            return new ImplicitMessage(primitives, message);
+        }
+        if (isValue(message)) {
+            return new BlockValue(primitives, message, receiver);
+        }
+        if (CloneMessage.CLONE.equals(message)) {
+            return new CloneMessage(primitives, receiver);
+        }
+        return new Message(primitives, receiver, message);
     }
 
     @CompilerDirectives.TruffleBoundary(allowInlining = true)
-    static SelfCode binaryMessage(SelfCode receiver, SelfSelector message, SelfCode arg) {
-        return new Message(receiver, message, arg);
+    static SelfCode binaryMessage(SelfPrimitives primitives, SelfCode receiver, SelfSelector message, SelfCode arg) {
+        if (receiver instanceof ResendTarget) {
+            return ((ResendTarget) receiver).send(primitives, message, arg);
+        }
+        SelfCode arithmetic = SelfArithmetic.create(primitives, message, receiver, arg);
+        if (arithmetic != null) {
+            return arithmetic;
+        }
+        return new Message(primitives, receiver, message, arg);
+    }
+
+    @CompilerDirectives.TruffleBoundary(allowInlining = true)
+    static SelfCode keywordMessage(SelfPrimitives primitives, SelfCode receiver, SelfSelector selector, SelfCode... args) {
+        if (SelfBuiltins.isPrimitive(selector)) {
+            return SelfBuiltins.create(primitives, selector, receiver, args);
+        }
+        if (receiver instanceof ResendTarget) {
+            return ((ResendTarget) receiver).send(primitives, selector, args);
+        }
+        if (receiver instanceof Self && args.length == 1) {
+            return new ImplicitAssignment(primitives, selector, args[0]);
+        }
+        if (isValue(selector)) {
+            return new BlockValue(primitives, selector, receiver, args);
+        }
+        SelfCode conditional = Conditional.create(primitives, receiver, selector, args);
+        if (conditional != null) {
+            return conditional;
+        }
+        SelfCode loop = SelfLoop.inlinedWhile(primitives, receiver, selector, args);
+        if (loop != null) {
+            return loop;
+        }
+        return new Message(primitives, receiver, selector, args);
+    }
+
+    /** Code of {@code value}, {@code value:}... slots of blocks. */
+    static SelfCode blockValue(SelfPrimitives primitives, SelfSelector selector) {
+        SelfCode[] args = new SelfCode[selector.arity()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = argument(i);
+        }
+        return new BlockValue(primitives, selector, self(), args);
+    }
+
+    static final String[] VALUE_SELECTORS = { "value", "value:", "value:With:", "value:With:With:" };
+    private static final SelfSelector[] VALUES = new SelfSelector[VALUE_SELECTORS.length];
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = SelfSelector.keyword(VALUE_SELECTORS[i]);
+        }
+    }
+
+    private static boolean isValue(SelfSelector selector) {
+        for (SelfSelector value : VALUES) {
+            if (value == selector) {
+                return true;
+            }
+        }
+        return false;
     }
 
+    /** Code evaluating given block literal in place, without creating
+     * a closure. Other nodes are copied.
+     */
     @CompilerDirectives.TruffleBoundary(allowInlining = true)
-    static SelfCode keywordMessage(SelfCode receiver, SelfSelector selector, SelfCode... args) {
-        return new Message(receiver, selector, args);
+    static SelfCode inline(SelfCode arg) {
+        if (!(arg instanceof BlockLiteral)) {
+            return NodeUtil.cloneNode(arg);
+        }
+        final SelfObject block = ((BlockLiteral) arg).block;
+        if (block.layout().size() == 0) {
+            Root root = (Root) ((RootCallTarget) block.code()).getRootNode();
+            return root.copyCode();
+        }
+        return new InnerMethod(block);
+    }
+
+    static boolean isBlockLiteral(SelfCode code) {
+        return code instanceof BlockLiteral;
     }
 
     @CompilerDirectives.TruffleBoundary(allowInlining = true)
-    static SelfCode compute(BiFunction<SelfObject, Object[], SelfObject> fn) {
+    static SelfCode compute(BiFunction<Object, Object[], Object> fn) {
         return new Compute(fn);
     }
 
     private static class Constant extends SelfCode {
-        private final SelfObject obj;
+        private final Object obj;
 
-        Constant(SelfObject obj) {
+        Constant(Object obj) {
             this.obj = obj;
         }
 
         @Override
-        SelfObject executeMessage(VirtualFrame frame, SelfObject self, Object... args) {
-            return obj.evalSelf(self, args);
+        Object executeMessage(VirtualFrame frame) {
+            return obj;
         }
 
         @Override
@@ -112,10 +384,556 @@ abstract class SelfCode extends Node {
         }
     }
 
+    /** Literal with assignable slots. Creates a new object on each
+     * evaluation.
+     */
+    private static class ObjectLiteral extends SelfCode {
+        private final SelfObject template;
+
+        ObjectLiteral(SelfObject template) {
+            this.template = template;
+        }
+
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            return template.copy();
+        }
+    }
+
+    /** Creates a closure. The frame of the current activation is
+     * materialized only if code of the block refers to it.
+     */
+    private static class BlockLiteral extends SelfCode {
+        private final SelfObject block;
+        @CompilerDirectives.CompilationFinal
+        private int capture;
+
+        BlockLiteral(SelfObject block) {
+            this.block = block;
+        }
+
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            if (capture == 0) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                RootNode root = rootOf(block);
+                capture = accessesOuter(root, Arrays.asList(root.getFrameDescriptor()), frame) ? 1 : 2;
+            }
+            return SelfObject.closure(block, self(frame), capture == 1 ? frame.materialize() : null);
+        }
+    }
+
+    private static RootNode rootOf(SelfObject obj) {
+        return ((RootCallTarget) obj.code()).getRootNode();
+    }
+
+    /** Can code of a block reach frames outside of it? Names used by
+     * implicit messages are resolved the way {@link ImplicitMessage} does.
+     * @param node code to check
+     * @param scopes descriptors of the checked block and blocks nested in it
+     * @param outer frame enclosing the checked block
+     */
+    private static boolean accessesOuter(Node node, List<FrameDescriptor> scopes, Frame outer) {
+        boolean[] found = { false };
+        NodeUtil.forEachChild(node, (child) -> {
+            final int nesting = scopes.size() - 1;
+            if (child instanceof ReadLocal) {
+                found[0] = ((ReadLocal) child).depth > nesting;
+            } else if (child instanceof WriteLocal) {
+                found[0] = ((WriteLocal) child).depth > nesting;
+            } else if (child instanceof InvokeLocal) {
+                found[0] = ((InvokeLocal) child).depth > nesting;
+            } else if (child instanceof ImplicitMessage) {
+                found[0] = isOuterSlot(((ImplicitMessage) child).message, scopes, outer);
+            } else if (child instanceof ImplicitAssignment) {
+                found[0] = isOuterSlot(((ImplicitAssignment) child).message, scopes, outer);
+            } else if (child instanceof InnerMethod || child instanceof Return) {
+                found[0] = true;
+            } else if (child instanceof BlockLiteral) {
+                RootNode nested = rootOf(((BlockLiteral) child).block);
+                List<FrameDescriptor> inner = new ArrayList<>(scopes);
+                inner.add(nested.getFrameDescriptor());
+                found[0] = accessesOuter(nested, inner, outer);
+            }
+            if (!found[0]) {
+                found[0] = accessesOuter(child, scopes, outer);
+            }
+            return !found[0];
+        });
+        return found[0];
+    }
+
+    private static boolean isOuterSlot(SelfSelector message, List<FrameDescriptor> scopes, Frame outer) {
+        final String text = message.toString();
+        final SelfSelector name = text.endsWith(":") ? SelfSelector.keyword(text.substring(0, text.length() - 1)) : message;
+        for (FrameDescriptor scope : scopes) {
+            if (scope.findFrameSlot(name) != null) {
+                return false;
+            }
+        }
+        for (Frame at = outer; at != null; at = outer(at)) {
+            if (at.getFrameDescriptor().findFrameSlot(name) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class InnerMethod extends SelfCode {
+        @Child
+        private DirectCallNode call;
+
+        InnerMethod(SelfObject method) {
+            this.call = DirectCallNode.create(method.code());
+        }
+
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            return call.call(self(frame), frame.materialize());
+        }
+    }
+
     private static class Self extends SelfCode {
         @Override
-        SelfObject executeMessage(VirtualFrame frame, SelfObject self, Object... args) {
-            return self;
+        Object executeMessage(VirtualFrame frame) {
+            return self(frame);
+        }
+    }
+
+    private static class Argument extends SelfCode {
+        private final int index;
+
+        Argument(int index) {
+            this.index = index;
+        }
+
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            return frame.getArguments()[ARGUMENTS + index];
+        }
+    }
+
+    /** Unary message without explicit receiver. Refers to an argument or
+     * a local slot of the current or lexically enclosing activation, if
+     * there is one with such name, otherwise it is sent to self.
+     */
+    private static class ImplicitMessage extends SelfCode {
+        private final SelfPrimitives primitives;
+        private final SelfSelector message;
+        private boolean tail;
+
+        ImplicitMessage(SelfPrimitives primitives, SelfSelector message) {
+            this.primitives = primitives;
+            this.message = message;
+        }
+
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            SelfCode resolved = null;
+            Frame at = frame;
+            for (int depth = 0; at != null; depth++) {
+                FrameSlot slot = at.getFrameDescriptor().findFrameSlot(message);
+                if (slot != null) {
+                    resolved = Invoke.isMethod(at.getValue(slot)) ? new InvokeLocal(depth, slot) : new ReadLocal(depth, slot);
+                    break;
+                }
+                at = outer(at);
+            }
+            if (resolved == null) {
+                resolved = new Message(primitives, new Self(), message).tail(tail);
+            }
+            return replace(resolved).executeMessage(frame);
+        }
+    }
+
+    /** Keyword message with single argument and without explicit receiver.
+     * Assigns an assignable local slot of the current or lexically enclosing
+     * activation, if there is one with such name, otherwise it is sent to self.
+     */
+    private static class ImplicitAssignment extends SelfCode {
+        private final SelfPrimitives primitives;
+        private final SelfSelector message;
+        private boolean tail;
+        @Child
+        private SelfCode value;
+
+        ImplicitAssignment(SelfPrimitives primitives, SelfSelector message, SelfCode value) {
+            this.primitives = primitives;
+            this.message = message;
+            this.value = value;
+        }
+
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            final String setter = message.toString();
+            final SelfSelector name = SelfSelector.keyword(setter.substring(0, setter.length() - 1));
+            SelfCode resolved = null;
+            Frame at = frame;
+            for (int depth = 0; at != null; depth++) {
+                final FrameDescriptor descriptor = at.getFrameDescriptor();
+                FrameSlot slot = descriptor.findFrameSlot(name);
+                if (slot != null && descriptor.findFrameSlot(message) != null) {
+                    resolved = new WriteLocal(depth, slot, value);
+                    break;
+                }
+                FrameSlot method = descriptor.findFrameSlot(message);
+                if (method != null && Invoke.isMethod(at.getValue(method))) {
+                    resolved = new InvokeLocal(depth, method, value);
+                    break;
+                }
+                at = outer(at);
+            }
+            if (resolved == null) {
+                resolved = new Message(primitives, new Self(), message, value).tail(tail);
+            }
+            return replace(resolved).executeMessage(frame);
+        }
+    }
+
+    private static class WriteLocal extends SelfCode {
+        private final int depth;
+        private final FrameSlot slot;
+        @Child
+        private SelfCode value;
+
+        WriteLocal(int depth, FrameSlot slot, SelfCode value) {
+            this.depth = depth;
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @ExplodeLoop
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            final Object v = value.executeMessage(frame);
+            Frame at = frame;
+            for (int i = 0; i < depth; i++) {
+                at = outer(at);
+            }
+            at.setObject(slot, v);
+            return self(frame);
+        }
+    }
+
+    private static class ReadLocal extends SelfCode {
+        private final int depth;
+        private final FrameSlot slot;
+
+        ReadLocal(int depth, FrameSlot slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @ExplodeLoop
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            Frame at = frame;
+            for (int i = 0; i < depth; i++) {
+                at = outer(at);
+            }
+            return at.getValue(slot);
+        }
+    }
+
+    /** Local slot holding a method. The method is invoked with the
+     * receiver of the current activation.
+     */
+    private static class InvokeLocal extends SelfCode {
+        private final int depth;
+        private final FrameSlot slot;
+        @Children
+        private final SelfCode[] args;
+        @Child
+        private Invoke invoke = Invoke.create();
+
+        InvokeLocal(int depth, FrameSlot slot, SelfCode... args) {
+            this.depth = depth;
+            this.slot = slot;
+            this.args = args;
+        }
+
+        @ExplodeLoop
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            Object[] values = new Object[ARGUMENTS + args.length];
+            values[SELF] = self(frame);
+            for (int i = 0; i < args.length; i++) {
+                values[ARGUMENTS + i] = args[i].executeMessage(frame);
+            }
+            Frame at = frame;
+            for (int i = 0; i < depth; i++) {
+                at = outer(at);
+            }
+            return invoke.executeInvoke(at.getValue(slot), values);
+        }
+    }
+
+    /** Thrown by {@code ^} to return from a method activation. One instance
+     * is allocated per activation and identifies it.
+     */
+    static final class NonLocalReturn extends ControlFlowException {
+        private static final long serialVersionUID = 1L;
+        private boolean active = true;
+        private Object value;
+    }
+
+    /** Method body containing {@code ^}. Keeps the exception identifying
+     * the activation in a frame slot and catches it.
+     */
+    private static final class ReturnTarget extends SelfCode {
+        private static final Object KEY = new Object();
+
+        @Child
+        private SelfCode body;
+        @CompilerDirectives.CompilationFinal
+        private FrameSlot slot;
+        private final ConditionProfile returned = ConditionProfile.createBinaryProfile();
+
+        ReturnTarget(SelfCode body) {
+            this.body = body;
+        }
+
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            if (slot == null) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                slot = frame.getFrameDescriptor().findOrAddFrameSlot(KEY, FrameSlotKind.Object);
+            }
+            final NonLocalReturn target = new NonLocalReturn();
+            frame.setObject(slot, target);
+            try {
+                return body.executeMessage(frame);
+            } catch (NonLocalReturn ex) {
+                if (returned.profile(ex == target)) {
+                    return ex.value;
+                }
+                throw ex;
+            } finally {
+                target.active = false;
+            }
+        }
+    }
+
+    /** The {@code ^} returning from the enclosing method activation. */
+    private static final class Return extends SelfCode {
+        @Child
+        private SelfCode value;
+        @CompilerDirectives.CompilationFinal
+        private int depth = -1;
+        @CompilerDirectives.CompilationFinal
+        private FrameSlot slot;
+
+        Return(SelfCode value) {
+            this.value = value;
+        }
+
+        @ExplodeLoop
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            final Object result = value.executeMessage(frame);
+            if (depth == -1) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                resolve(frame);
+            }
+            Frame at = frame;
+            for (int i = 0; i < depth; i++) {
+                at = outer(at);
+            }
+            final NonLocalReturn target = (NonLocalReturn) FrameUtil.getObjectSafe(at, slot);
+            if (!target.active) {
+                CompilerDirectives.transferToInterpreter();
+                throw new IllegalStateException("Cannot ^ from a method that has already returned");
+            }
+            target.value = result;
+            throw target;
+        }
+
+        private void resolve(Frame frame) {
+            Frame at = frame;
+            for (int d = 0; at != null; d++) {
+                FrameSlot found = at.getFrameDescriptor().findFrameSlot(ReturnTarget.KEY);
+                if (found != null) {
+                    slot = found;
+                    depth = d;
+                    return;
+                }
+                at = outer(at);
+            }
+            throw new IllegalStateException("^ outside of a method");
+        }
+    }
+
+    /** Placeholder for {@code resend.} or directed {@code parent.} receiver.
+     * Exists only while parsing, the following send replaces it.
+     */
+    private static final class ResendTarget extends SelfCode {
+        private final SelfSelector parent;
+
+        ResendTarget(SelfSelector parent) {
+            this.parent = parent;
+        }
+
+        SelfCode send(SelfPrimitives primitives, SelfSelector selector, SelfCode... args) {
+            return new Resend(selector, parent, args);
+        }
+
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            CompilerDirectives.transferToInterpreter();
+            throw new IllegalStateException("Expecting message after resend");
+        }
+    }
+
+    /** Sends a message to self, but looks it up starting at the parent of
+     * the object holding the current method.
+     */
+    private static final class Resend extends SelfCode {
+        @Children
+        private final SelfCode[] args;
+        @Child
+        private ResendLookup lookup;
+        @Child
+        private Invoke invoke;
+
+        Resend(SelfSelector selector, SelfSelector parent, SelfCode... args) {
+            this.args = args;
+            this.lookup = SelfCodeFactory.ResendLookupNodeGen.create(selector, parent, new Object[3]);
+            this.invoke = Invoke.create();
+        }
+
+        @ExplodeLoop
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            Object[] values = new Object[ARGUMENTS + args.length];
+            values[SELF] = self(frame);
+            for (int i = 0; i < args.length; i++) {
+                values[ARGUMENTS + i] = args[i].executeMessage(frame);
+            }
+            final Object msg = lookup.executeLookup(values[SELF]);
+            if (msg == null) {
+                throw UnknownIdentifierException.raise(lookup.selector.toString());
+            }
+            return invoke.executeInvoke(msg, values);
+        }
+    }
+
+    /** Lookup of a resend. Searches the receiver for the object holding
+     * the method with the resend, the lookup then starts at its parents.
+     * Cached per layout and parents of the receiver, until any of the
+     * visited objects changes.
+     */
+    abstract static class ResendLookup extends Node {
+        final SelfSelector selector;
+        final SelfSelector parent;
+        /** literal holding the method, name of its slot and the method;
+         * shared by all copies of the node */
+        private final Object[] binding;
+
+        ResendLookup(SelfSelector selector, SelfSelector parent, Object[] binding) {
+            this.selector = selector;
+            this.parent = parent;
+            this.binding = binding;
+        }
+
+        abstract Object executeLookup(Object self);
+
+        @Specialization(guards = {
+            "self.layout() == cachedLayout",
+            "self.hasParents(cachedParents)",
+            "holdsMethod(self, index, method) == cachedHolds"
+        }, assumptions = "inherited.assumptions", limit = "3")
+        static Object cachedResend(
+            SelfObject self,
+            @Cached("self.layout()") SelfLayout cachedLayout,
+            @Cached(value = "self.parents()", dimensions = 1) SelfObject[] cachedParents,
+            @Cached("slotIndex(cachedLayout)") int index,
+            @Cached("method()") Object method,
+            @Cached("holdsMethod(self, index, method)") boolean cachedHolds,
+            @Cached("resolve(self)") Inherited inherited
+        ) {
+            return inherited.value();
+        }
+
+        @CompilerDirectives.TruffleBoundary
+        @Specialization(replaces = "cachedResend")
+        Object resend(Object self) {
+            return resolve(self).value();
+        }
+
+        void bind(SelfObject holderOfMethod, SelfSelector slot, SelfObject method) {
+            if (binding[0] == null) {
+                binding[1] = slot;
+                binding[2] = method;
+                binding[0] = holderOfMethod;
+            }
+        }
+
+        int slotIndex(SelfLayout layout) {
+            return binding[0] == null ? -1 : layout.indexOf((SelfSelector) binding[1]);
+        }
+
+        Object method() {
+            return binding[2];
+        }
+
+        /** Is the method in a slot of the receiver itself? */
+        static boolean holdsMethod(SelfObject self, int index, Object method) {
+            return index >= 0 && self.valueAt(index) == method;
+        }
+
+        @CompilerDirectives.TruffleBoundary
+        Inherited resolve(Object self) {
+            if (binding[0] == null) {
+                throw new IllegalStateException("resend." + selector + " outside of a method");
+            }
+            final SelfSelector slot = (SelfSelector) binding[1];
+            List<Assumption> assumptions = new ArrayList<>();
+            SelfObject at = null;
+            if (self instanceof SelfObject) {
+                final SelfObject receiver = (SelfObject) self;
+                Set<SelfObject> visited = SelfObject.newVisitedSet();
+                at = findMethodHolder(receiver, slot, binding[2], visited);
+                for (SelfObject obj : visited) {
+                    if (obj != receiver) {
+                        obj.lookupAssumptions(slot, assumptions);
+                    }
+                }
+            }
+            if (at == null) {
+                at = (SelfObject) binding[0];
+            }
+            at.lookupAssumptions(parent, assumptions);
+            if (parent == null) {
+                return Lookup.inherited(assumptions, at.parents(), selector);
+            }
+            int index = at.layout().indexOf(parent);
+            Object start = index == -1 ? null : at.valueAt(index);
+            if (!(start instanceof SelfObject)) {
+                throw new IllegalStateException("No parent " + parent + " to resend " + selector + " to");
+            }
+            return Lookup.inherited(assumptions, new SelfObject[] { (SelfObject) start }, selector);
+        }
+
+        /** The object the method has been found in: searches in the same
+         * order as a lookup for a slot holding the very method.
+         */
+        private static SelfObject findMethodHolder(SelfObject at, SelfSelector slot, Object method, Set<SelfObject> visited) {
+            if (at == null || !visited.add(at)) {
+                return null;
+            }
+            int index = at.layout().indexOf(slot);
+            if (index >= 0 && at.valueAt(index) == method) {
+                return at;
+            }
+            for (int i = 0; i < at.parentCount(); i++) {
+                SelfObject found = findMethodHolder(at.parentAt(i), slot, method, visited);
+                if (found != null) {
+                    return found;
+                }
+            }
+            return null;
         }
     }
 
@@ -124,27 +942,575 @@ abstract class SelfCode extends Node {
         private SelfCode receiver;
         @Children
         private SelfCode[] args;
+        @Child
+        private Lookup lookup;
+        @Child
+        private Invoke invoke;
         private final SelfSelector message;
+        @CompilerDirectives.CompilationFinal
+        private boolean tail;
+        @CompilerDirectives.CompilationFinal
+        private CallTarget home;
 
-        Message(SelfCode receiver, SelfSelector message, SelfCode... args) {
+        Message(SelfPrimitives primitives, SelfCode receiver, SelfSelector message, SelfCode... args) {
             this.receiver = receiver;
             this.message = message;
             this.args = args;
+            this.lookup = Lookup.create(primitives, message);
+            this.invoke = Invoke.create();
+        }
+
+        Message tail(boolean isTail) {
+            if (tail != isTail) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                this.tail = isTail;
+            }
+            return this;
         }
 
         @ExplodeLoop
         @Override
-        SelfObject executeMessage(VirtualFrame frame, SelfObject self, Object... myArgs) {
-            SelfObject obj = receiver.executeMessage(frame, self);
-            SelfObject[] values = new SelfObject[args.length];
+        Object executeMessage(VirtualFrame frame) {
+            Object obj = receiver.executeMessage(frame);
+            Object[] values = new Object[ARGUMENTS + args.length];
+            values[SELF] = obj;
             for (int i = 0; i < args.length; i++) {
-                values[i] = args[i].executeMessage(frame, self, myArgs);
+                values[ARGUMENTS + i] = args[i].executeMessage(frame);
             }
-            final SelfObject msg = (SelfObject) obj.get(message.toString());
-            if (msg == null) {
-                throw UnknownIdentifierException.raise(message.toString());
+            if (tail) {
+                final Object msg = lookup.executeLookup(obj);
+                if (msg instanceof SelfObject && ((SelfObject) msg).code() == home()) {
+                    throw new TailCall(values);
+                }
+                if (msg == null) {
+                    return lookup.notUnderstood(values);
+                }
+                return invoke.executeInvoke(msg, values);
+            }
+            return dispatch(lookup, invoke, values);
+        }
+
+        private CallTarget home() {
+            if (home == null) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                home = ((Root) getRootNode()).original.getCallTarget();
+            }
+            return home;
+        }
+    }
+
+    /** Thrown by a send in tail position to restart the method it is in. */
+    static final class TailCall extends ControlFlowException {
+        private static final long serialVersionUID = 1L;
+        private final Object[] frameArguments;
+
+        TailCall(Object[] frameArguments) {
+            this.frameArguments = frameArguments;
+        }
+    }
+
+    /** Looks the selector up in the receiver and invokes the found slot.
+     * @param frameArguments receiver followed by arguments as described at {@link #SELF}
+     */
+    static Object dispatch(Lookup lookup, Invoke invoke, Object[] frameArguments) {
+        final Object msg = lookup.executeLookup(frameArguments[SELF]);
+        if (msg == null) {
+            return lookup.notUnderstood(frameArguments);
+        }
+        return invoke.executeInvoke(msg, frameArguments);
+    }
+
+    /** Sends {@code clone}. Objects that don't define it are copied by
+     * the {@code _Clone} primitive.
+     */
+    private static final class CloneMessage extends SelfCode {
+        static final SelfSelector CLONE = SelfSelector.keyword("clone");
+
+        @Child
+        private SelfCode receiver;
+        @Child
+        private Lookup lookup;
+        @Child
+        private Invoke invoke;
+        @Child
+        private SelfBuiltins.Clone clone;
+
+        CloneMessage(SelfPrimitives primitives, SelfCode receiver) {
+            this.receiver = receiver;
+            this.lookup = Lookup.create(primitives, CLONE);
+            this.invoke = Invoke.create();
+            this.clone = SelfBuiltinsFactory.CloneNodeGen.create(primitives, null);
+        }
+
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            final Object obj = receiver.executeMessage(frame);
+            final Object method = lookup.executeLookup(obj);
+            if (method == null) {
+                return clone.executeClone(obj);
+            }
+            return invoke.executeInvoke(method, frameArguments(obj, null));
+        }
+    }
+
+    /** {@code ifTrue:False:}, {@code ifTrue:} and {@code ifFalse:} sent
+     * with literal blocks or constants. The chosen block is evaluated in place without
+     * creating a closure. Any other receiver than unmodified {@code true}
+     * or {@code false} gets a regular message.
+     */
+    private static final class Conditional extends SelfCode {
+        private final SelfPrimitives primitives;
+        private final SelfSelector selector;
+        private final ConditionProfile profile = ConditionProfile.createCountingProfile();
+        private final Assumption trueUnchanged;
+        private final Assumption falseUnchanged;
+        @Child
+        private SelfCode receiver;
+        @Child
+        private SelfCode whenTrue;
+        @Child
+        private SelfCode whenFalse;
+        @Children
+        private final SelfCode[] args;
+        @Child
+        private Lookup lookup;
+        @Child
+        private Invoke invoke;
+
+        private Conditional(SelfPrimitives primitives, SelfCode receiver, SelfSelector selector, SelfCode whenTrue, SelfCode whenFalse, SelfCode[] args) {
+            this.primitives = primitives;
+            this.selector = selector;
+            this.receiver = receiver;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+            this.args = args;
+            this.trueUnchanged = unchanged(primitives.valueOf(true), selector);
+            this.falseUnchanged = unchanged(primitives.valueOf(false), selector);
+        }
+
+        private static Assumption unchanged(SelfObject bool, SelfSelector selector) {
+            return bool.unchanged(bool.layout().indexOf(selector));
+        }
+
+        static SelfCode create(SelfPrimitives primitives, SelfCode receiver, SelfSelector selector, SelfCode[] args) {
+            for (int i = 0; i < args.length; i++) {
+                if (!(args[i] instanceof BlockLiteral) && !(args[i] instanceof Constant)) {
+                    return null;
+                }
+            }
+            final SelfCode[] branches;
+            switch (selector.toString()) {
+                case "ifTrue:False:":
+                    branches = new SelfCode[] { inline(args[0]), inline(args[1]) };
+                    break;
+                case "ifTrue:":
+                    branches = new SelfCode[] { inline(args[0]), null };
+                    break;
+                case "ifFalse:":
+                    branches = new SelfCode[] { null, inline(args[0]) };
+                    break;
+                default:
+                    return null;
+            }
+            return new Conditional(primitives, receiver, selector, branches[0], branches[1], args);
+        }
+
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            Object value = receiver.executeMessage(frame);
+            if (profile.profile(value == primitives.valueOf(true))) {
+                if (trueUnchanged.isValid()) {
+                    return whenTrue == null ? value : whenTrue.executeMessage(frame);
+                }
+            } else if (value == primitives.valueOf(false) && falseUnchanged.isValid()) {
+                return whenFalse == null ? value : whenFalse.executeMessage(frame);
+            }
+            return send(frame, value);
+        }
+
+        @ExplodeLoop
+        private Object send(VirtualFrame frame, Object value) {
+            if (lookup == null) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                lookup = insert(Lookup.create(primitives, selector));
+                invoke = insert(Invoke.create());
+            }
+            Object[] values = new Object[ARGUMENTS + args.length];
+            values[SELF] = value;
+            for (int i = 0; i < args.length; i++) {
+                values[ARGUMENTS + i] = args[i].executeMessage(frame);
+            }
+            return dispatch(lookup, invoke, values);
+        }
+    }
+
+    abstract static class Lookup extends Node {
+        static final SelfSelector DOES_NOT_UNDERSTAND = SelfSelector.keyword("doesNotUnderstand:");
+
+        final SelfPrimitives primitives;
+        final SelfSelector selector;
+        @Child
+        private Lookup handlerLookup;
+        @Child
+        private Invoke handlerInvoke;
+
+        Lookup(SelfPrimitives primitives, SelfSelector selector) {
+            this.primitives = primitives;
+            this.selector = selector;
+        }
+
+        abstract Object executeLookup(Object receiver);
+
+        @Specialization(assumptions = "inherited.assumptions")
+        static Object blockLookup(
+            SelfObject.Closure receiver,
+            @Cached("inherited(primitives.prototypeOf(receiver), selector)") Inherited inherited
+        ) {
+            return inherited.value();
+        }
+
+        @Specialization(guards = {
+            "receiver == cachedReceiver",
+            "own != null"
+        }, assumptions = "own.assumptions", limit = "3")
+        static Object constantLookup(
+            SelfObject receiver,
+            @Cached("receiver") SelfObject cachedReceiver,
+            @Cached("own(cachedReceiver, selector)") Inherited own
+        ) {
+            return own.value();
+        }
+
+        @Specialization(guards = {
+            "receiver.layout() == cachedLayout",
+            "index >= 0"
+        }, limit = "3")
+        Object localLookup(
+            SelfObject receiver,
+            @Cached("receiver.layout()") SelfLayout cachedLayout,
+            @Cached("cachedLayout.indexOf(selector)") int index
+        ) {
+            Object value = receiver.valueAt(index);
+            if (value == null) {
+                return megamorphicLookup(receiver);
+            }
+            return value;
+        }
+
+        @Specialization(guards = {
+            "receiver.layout() == cachedLayout",
+            "!cachedLayout.contains(selector)",
+            "receiver.hasParents(cachedParents)"
+        }, assumptions = "inherited.assumptions", limit = "3")
+        static Object inheritedLookup(
+            SelfObject receiver,
+            @Cached("receiver.layout()") SelfLayout cachedLayout,
+            @Cached(value = "receiver.parents()", dimensions = 1) SelfObject[] cachedParents,
+            @Cached("inherited(cachedParents, selector)") Inherited inherited
+        ) {
+            return inherited.value();
+        }
+
+        @Specialization(guards = {
+            "receiver.layout() == cachedLayout",
+            "cachedLayout.parentCount() == 0",
+            "!cachedLayout.contains(selector)"
+        }, limit = "3")
+        static Object parentLookup(
+            SelfObject receiver,
+            @Cached("receiver.layout()") SelfLayout cachedLayout,
+            @Cached("create(primitives, selector)") Lookup parentLookup
+        ) {
+            final SelfObject parent = receiver.parent();
+            return parent == null ? null : SelfObject.Setter.bind(parentLookup.executeLookup(parent), parent);
+        }
+
+        @Specialization(guards = {
+            "primitives.prototypeOf(receiver) == prototype"
+        }, assumptions = "inherited.assumptions", limit = "3")
+        static Object numberLookup(
+            Number receiver,
+            @Cached("primitives.prototypeOf(receiver)") SelfObject prototype,
+            @Cached("inherited(prototype, selector)") Inherited inherited
+        ) {
+            return inherited.value();
+        }
+
+        @Specialization(replaces = { "blockLookup", "constantLookup", "localLookup", "inheritedLookup", "parentLookup", "numberLookup" })
+        Object megamorphicLookup(Object receiver) {
+            return primitives.lookup(receiver, selector);
+        }
+
+        /** Sends {@code doesNotUnderstand:} with the message to the receiver.
+         * Misses are cached by the lookup like any other result and so is
+         * the handler, repeated misses go straight to it.
+         */
+        final Object notUnderstood(Object[] frameArguments) {
+            if (handlerLookup == null) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                handlerLookup = insert(create(primitives, DOES_NOT_UNDERSTAND));
+                handlerInvoke = insert(Invoke.create());
+            }
+            final Object receiver = frameArguments[SELF];
+            final Object handler = handlerLookup.executeLookup(receiver);
+            if (handler == null) {
+                throw UnknownIdentifierException.raise(selector.toString());
+            }
+            SelfObject message = primitives.message(new SentMessage(selector, frameArguments));
+            return handlerInvoke.executeInvoke(handler, frameArguments(receiver, null, message));
+        }
+
+        @CompilerDirectives.TruffleBoundary
+        static Inherited inherited(SelfObject parent, SelfSelector selector) {
+            return inherited(new ArrayList<>(), new SelfObject[] { parent }, selector);
+        }
+
+        @CompilerDirectives.TruffleBoundary
+        static Inherited inherited(SelfObject[] parents, SelfSelector selector) {
+            return inherited(new ArrayList<>(), parents, selector);
+        }
+
+        /** Own slot of the receiver that hasn't been assigned yet. Its value
+         * is treated as a constant until the slot changes.
+         * @return the constant or {@code null} if the slot isn't local or
+         *   has been written
+         */
+        @CompilerDirectives.TruffleBoundary
+        static Inherited own(SelfObject receiver, SelfSelector selector) {
+            int index = receiver.layout().indexOf(selector);
+            if (index < 0 || receiver.isWritten(index) || receiver.valueAt(index) == null) {
+                return null;
+            }
+            return new Inherited(receiver.valueAt(index), Collections.singletonList(receiver.unchanged(index)));
+        }
+
+        /** Searches the parents. The result depends on slots of all the
+         * visited objects, hence their assumptions are collected.
+         */
+        static Inherited inherited(List<Assumption> assumptions, SelfObject[] parents, SelfSelector selector) {
+            Set<SelfObject> visited = SelfObject.newVisitedSet();
+            SelfObject at = SelfObject.findHolder(parents, selector, visited);
+            for (SelfObject obj : visited) {
+                obj.lookupAssumptions(selector, assumptions);
+            }
+            if (at == null) {
+                return new Inherited(null, assumptions);
+            }
+            int index = at.layout().indexOf(selector);
+            if (at.isWritten(index)) {
+                return new Inherited(at, index, assumptions);
+            }
+            return new Inherited(SelfObject.Setter.bind(at.valueAt(index), at), assumptions);
+        }
+
+        static Lookup create(SelfPrimitives primitives, SelfSelector selector) {
+            return SelfCodeFactory.LookupNodeGen.create(primitives, selector);
+        }
+    }
+
+    /** Result of a lookup that went through parents. Stays valid as long
+     * as none of the visited objects changes its slots.
+     */
+    static final class Inherited {
+        private final Object value;
+        private final SelfObject holder;
+        private final int index;
+        final Assumption[] assumptions;
+
+        Inherited(Object value, List<Assumption> assumptions) {
+            this(value, null, -1, assumptions);
+        }
+
+        /** Slot that has already been assigned is read on each access. */
+        Inherited(SelfObject holder, int index, List<Assumption> assumptions) {
+            this(null, holder, index, assumptions);
+        }
+
+        private Inherited(Object value, SelfObject holder, int index, List<Assumption> assumptions) {
+            this.value = value;
+            this.holder = holder;
+            this.index = index;
+            this.assumptions = assumptions.toArray(new Assumption[assumptions.size()]);
+        }
+
+        Object value() {
+            return holder == null ? value : holder.valueAt(index);
+        }
+    }
+
+    abstract static class Invoke extends Node {
+        abstract Object executeInvoke(Object method, Object[] frameArguments);
+
+        static Invoke create() {
+            return SelfCodeFactory.InvokeNodeGen.create();
+        }
+
+        @Specialization
+        static Object assign(SelfObject.Setter method, Object[] frameArguments) {
+            return method.assign(frameArguments[SELF], frameArguments[ARGUMENTS]);
+        }
+
+        @Specialization(guards = "!isMethod(method)")
+        static Object slotValue(Object method, Object[] frameArguments) {
+            return method;
+        }
+
+        @Specialization(guards = "method.code() == cachedCode", limit = "3")
+        static Object directCall(
+            SelfObject method, Object[] frameArguments,
+            @Cached("method.code()") CallTarget cachedCode,
+            @Cached("create(cachedCode)") DirectCallNode call
+        ) {
+            return call.call(frameArguments);
+        }
+
+        @Specialization(replaces = "directCall")
+        static Object indirectCall(
+            SelfObject method, Object[] frameArguments,
+            @Cached("create()") IndirectCallNode call
+        ) {
+            return call.call(method.code(), frameArguments);
+        }
+
+        static boolean isMethod(Object obj) {
+            return obj instanceof SelfObject && ((SelfObject) obj).isMethod();
+        }
+    }
+
+    /** Sends {@code value}, {@code value:}... to a block. Closures are
+     * evaluated in place by a direct call, when they expect as many
+     * arguments as the selector has. Other receivers get a regular message.
+     */
+    private static final class BlockValue extends SelfCode {
+        private final SelfPrimitives primitives;
+        private final SelfSelector selector;
+        @Child
+        private SelfCode receiver;
+        @Children
+        private final SelfCode[] args;
+        @Child
+        private Evaluate evaluate = Evaluate.create();
+        @Child
+        private Lookup lookup;
+        @Child
+        private Invoke invoke;
+        private final ConditionProfile closure = ConditionProfile.createBinaryProfile();
+
+        BlockValue(SelfPrimitives primitives, SelfSelector selector, SelfCode receiver, SelfCode... args) {
+            this.primitives = primitives;
+            this.selector = selector;
+            this.receiver = receiver;
+            this.args = args;
+        }
+
+        @ExplodeLoop
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            final Object block = receiver.executeMessage(frame);
+            final Object[] values = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                values[i] = args[i].executeMessage(frame);
             }
-            return msg.evalSelf(obj, values);
+            if (closure.profile(block instanceof SelfObject.Closure)) {
+                return evaluate.executeEvaluate(block, values);
+            }
+            if (lookup == null) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                lookup = insert(Lookup.create(primitives, selector));
+                invoke = insert(Invoke.create());
+            }
+            return dispatch(lookup, invoke, frameArguments(block, null, values));
+        }
+    }
+
+    /** Message that hasn't been understood by its receiver. */
+    static final class SentMessage {
+        final SelfSelector selector;
+        private final Object[] frameArguments;
+
+        SentMessage(SelfSelector selector, Object[] frameArguments) {
+            this.selector = selector;
+            this.frameArguments = frameArguments;
+        }
+
+        Object[] frameArguments(Object receiver) {
+            Object[] arr = frameArguments.clone();
+            arr[SELF] = receiver;
+            arr[OUTER] = null;
+            return arr;
+        }
+    }
+
+    /** Code of {@code sendTo:} of a message. Sends it with the original
+     * arguments to another receiver.
+     */
+    static final class SendTo extends SelfCode {
+        private final SelfPrimitives primitives;
+        @Child
+        private Invoke invoke = Invoke.create();
+
+        SendTo(SelfPrimitives primitives) {
+            this.primitives = primitives;
+        }
+
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            SentMessage sent = (SentMessage) SelfObject.findWrappedValue(self(frame)).get();
+            Object target = frame.getArguments()[ARGUMENTS];
+            Object method = primitives.lookup(target, sent.selector);
+            if (method == null) {
+                throw UnknownIdentifierException.raise(sent.selector.toString());
+            }
+            return invoke.executeInvoke(method, sent.frameArguments(target));
+        }
+    }
+
+    /** Evaluates a block with given arguments. Fails when the block
+     * expects a different number of arguments. Other objects evaluate
+     * to themselves.
+     */
+    abstract static class Evaluate extends Node {
+        abstract Object executeEvaluate(Object block, Object[] args);
+
+        static Evaluate create() {
+            return SelfCodeFactory.EvaluateNodeGen.create();
+        }
+
+        @Specialization(guards = "block.code() == cachedCode", limit = "3")
+        static Object directValue(
+            SelfObject.Closure block, Object[] args,
+            @Cached("block.code()") CallTarget cachedCode,
+            @Cached("block.arity()") int arity,
+            @Cached("create(cachedCode)") DirectCallNode call
+        ) {
+            checkArity(block, arity, args);
+            return call.call(block.frameArguments(args));
+        }
+
+        @Specialization(replaces = "directValue")
+        static Object indirectValue(
+            SelfObject.Closure block, Object[] args,
+            @Cached("create()") IndirectCallNode call
+        ) {
+            checkArity(block, block.arity(), args);
+            return call.call(block.code(), block.frameArguments(args));
+        }
+
+        private static void checkArity(SelfObject.Closure block, int arity, Object[] args) {
+            if (args.length != arity) {
+                CompilerDirectives.transferToInterpreter();
+                throw wrongArity(block, args.length);
+            }
+        }
+
+        @CompilerDirectives.TruffleBoundary
+        private static IllegalStateException wrongArity(SelfObject.Closure block, int count) {
+            return new IllegalStateException("Evaluation with " + count + " arguments failed for a block with " + block.arity() + " arguments");
+        }
+
+        @Fallback
+        static Object constantValue(Object block, Object[] args) {
+            return block;
         }
     }
 
@@ -158,25 +1524,26 @@ abstract class SelfCode extends Node {
 
         @ExplodeLoop
         @Override
-        SelfObject executeMessage(VirtualFrame frame, SelfObject self, Object... args) {
-            SelfObject res = self;
+        Object executeMessage(VirtualFrame frame) {
+            Object res = null;
             for (int i = 0; i < children.length; i++) {
-                res = children[i].executeMessage(frame, self);
+                res = children[i].executeMessage(frame);
             }
             return res;
         }
     }
 
     private static class Compute extends SelfCode {
-        private final BiFunction<SelfObject, Object[], SelfObject> fn;
+        private final BiFunction<Object, Object[], Object> fn;
 
-        Compute(BiFunction<SelfObject, Object[], SelfObject> fn) {
+        Compute(BiFunction<Object, Object[], Object> fn) {
             this.fn = fn;
         }
 
         @Override
-        SelfObject executeMessage(VirtualFrame frame, SelfObject self, Object... args) {
-            return fn.apply(self, null);
+        Object executeMessage(VirtualFrame frame) {
+            final Object[] frameArguments = frame.getArguments();
+            return fn.apply(self(frame), Arrays.copyOfRange(frameArguments, ARGUMENTS, frameArguments.length));
         }
     }
 
@@ -190,16 +1557,26 @@ abstract class SelfCode extends Node {
         }
 
         @Override
-        SelfObject executeMessage(VirtualFrame frame, SelfObject self, Object... args) {
-            Object value = args[index];
-            if (value instanceof Number) {
+        Object executeMessage(VirtualFrame frame) {
+            Object value = frame.getArguments()[ARGUMENTS + index];
+            if (value instanceof Long) {
+                return primitives.valueOf((long) value);
+            } else if (value instanceof Double || value instanceof Float) {
+                return ((Number) value).doubleValue();
+            } else if (value instanceof Number) {
                 return primitives.valueOf(((Number) value).intValue());
             } else if (value instanceof Boolean) {
                 return primitives.valueOf((Boolean) value);
             } else if (value instanceof String) {
                 return primitives.valueOf((String) value);
+            } else if (value instanceof SelfObject) {
+                return primitives.importValue((SelfObject) value);
+            }
+            final ByteBuffer buffer = SelfLanguage.findHostBuffer(value);
+            if (buffer != null) {
+                return primitives.valueOf(buffer);
             }
-            return (SelfObject) value;
+            return value;
         }
     }
 
@@ -208,27 +1585,178 @@ abstract class SelfCode extends Node {
         return Truffle.getRuntime().createCallTarget(root);
     }
 
+    /** Prepares the activation frame of a method (or block) for slots of
+     * the object holding the {@code code}.
+     */
+    static void initializeFrame(CallTarget code, SelfLayout layout, Object[] values) {
+        if (code instanceof RootCallTarget) {
+            RootNode root = ((RootCallTarget) code).getRootNode();
+            if (root instanceof Root) {
+                ((Root) root).initializeFrame(layout, values);
+            }
+        }
+    }
 
+    static Object[] frameArguments(Object self, MaterializedFrame outer, Object... args) {
+        Object[] arr = new Object[ARGUMENTS + args.length];
+        arr[SELF] = self;
+        arr[OUTER] = outer;
+        System.arraycopy(args, 0, arr, ARGUMENTS, args.length);
+        return arr;
+    }
+
+    static Object self(Frame frame) {
+        return frame.getArguments()[SELF];
+    }
+
+    static MaterializedFrame outer(Frame frame) {
+        return (MaterializedFrame) frame.getArguments()[OUTER];
+    }
+
+    /** Root of every method and block. Takes an uninitialized copy of its
+     * code before the first execution specializes it, so the runtime can
+     * split it for individual call sites. Splits share the copy. Restarts
+     * the activation with new arguments on {@link TailCall} in a loop, so
+     * tail recursive methods are compiled on stack like other loops.
+     */
     static final class Root extends RootNode {
-        private final SelfCode code;
+        private static final Object RESULT = new Object();
+
+        private final SelfLanguage language;
+        /** Template for splits and inlining, {@code null} until executed. */
+        @CompilerDirectives.CompilationFinal
+        private SelfCode uninitialized;
+        private Root original = this;
+        private final FrameSlot result;
+        @Child
+        private LoopNode activation;
+        @CompilerDirectives.CompilationFinal(dimensions = 1)
+        private FrameSlot[] slots = {};
+        @CompilerDirectives.CompilationFinal(dimensions = 1)
+        private Object[] initialValues = {};
+        @CompilerDirectives.CompilationFinal(dimensions = 1)
+        private boolean[] arguments = {};
 
         private Root(SelfLanguage language, SelfCode code) {
-            super(language);
-            this.code = code;
+            this(language, new FrameDescriptor(), code);
+        }
+
+        private Root(SelfLanguage language, FrameDescriptor descriptor, SelfCode code) {
+            super(language, descriptor);
+            this.language = language;
+            this.result = descriptor.findOrAddFrameSlot(RESULT);
+            this.activation = Truffle.getRuntime().createLoopNode(new Activation(this, code));
+        }
+
+        private SelfCode code() {
+            return ((Activation) activation.getRepeatingNode()).code;
+        }
+
+        /** The code as it was before the first execution. */
+        private SelfCode uninitialized() {
+            return uninitialized != null ? uninitialized : code();
+        }
+
+        /** Fresh copy of the code to be inlined into another activation. */
+        SelfCode copyCode() {
+            SelfCode copy = NodeUtil.cloneNode(uninitialized());
+            if (copy instanceof ReturnTarget) {
+                copy = ((ReturnTarget) copy).body;
+            }
+            markTail(copy, false);
+            return copy;
+        }
+
+        @Override
+        public boolean isCloningAllowed() {
+            return true;
+        }
+
+        @Override
+        protected boolean isCloneUninitializedSupported() {
+            return true;
+        }
+
+        @Override
+        protected RootNode cloneUninitialized() {
+            if (uninitialized == null) {
+                uninitialized = NodeUtil.cloneNode(code());
+            }
+            Root root = new Root(language, getFrameDescriptor(), NodeUtil.cloneNode(uninitialized));
+            root.uninitialized = uninitialized;
+            root.original = original;
+            root.slots = slots;
+            root.arguments = arguments;
+            root.initialValues = initialValues;
+            return root;
+        }
+
+        void initializeFrame(SelfLayout layout, Object[] values) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            final FrameDescriptor descriptor = getFrameDescriptor();
+            FrameSlot[] newSlots = new FrameSlot[layout.size()];
+            boolean[] newArguments = new boolean[layout.size()];
+            for (int i = 0; i < newSlots.length; i++) {
+                newSlots[i] = descriptor.findOrAddFrameSlot(layout.name(i));
+                newArguments[i] = layout.isArgument(i);
+            }
+            this.slots = newSlots;
+            this.arguments = newArguments;
+            this.initialValues = values.clone();
         }
 
         @Override
         public Object execute(VirtualFrame frame) {
-            SelfObject thiz = (SelfObject) frame.getArguments()[0];
-            SelfObject self = (SelfObject) frame.getArguments()[1];
-            Object[] values = (Object[]) frame.getArguments()[2];
-            SelfObject methodActivation = thiz.cloneWithArgs(self, values);
-            if (methodActivation.blockCode() != null) {
-                return methodActivation;
+            if (uninitialized == null) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                uninitialized = NodeUtil.cloneNode(code());
             }
-            SelfObject result = code.executeMessage(frame, methodActivation, values);
-            return result;
+            initializeSlots(frame);
+            activation.executeLoop(frame);
+            return FrameUtil.getObjectSafe(frame, result);
         }
 
+        /** Replaces the arguments of the activation for the next round. */
+        void restart(VirtualFrame frame, Object[] frameArguments) {
+            final Object[] current = frame.getArguments();
+            assert current.length == frameArguments.length;
+            System.arraycopy(frameArguments, 0, current, 0, current.length);
+            initializeSlots(frame);
+        }
+
+        @ExplodeLoop
+        private void initializeSlots(VirtualFrame frame) {
+            final Object[] frameArguments = frame.getArguments();
+            int index = ARGUMENTS;
+            for (int i = 0; i < slots.length; i++) {
+                Object value = arguments[i] ? frameArguments[index++] : initialValues[i];
+                frame.setObject(slots[i], value);
+            }
+        }
+    }
+
+    /** Executes the code of a {@link Root}. Repeats when the code ends
+     * with a {@link TailCall}.
+     */
+    private static final class Activation extends Node implements RepeatingNode {
+        private final Root root;
+        @Child
+        private SelfCode code;
+
+        Activation(Root root, SelfCode code) {
+            this.root = root;
+            this.code = code;
+        }
+
+        @Override
+        public boolean executeRepeating(VirtualFrame frame) {
+            try {
+                frame.setObject(root.result, code.executeMessage(frame));
+                return false;
+            } catch (TailCall call) {
+                root.restart(frame, call.frameArguments);
+                return true;
+            }
+        }
     }
 }
@@ -44,10 +44,16 @@ import com.oracle.truffle.api.CompilerAsserts;
 import com.oracle.truffle.api.dsl.Cached;
 import com.oracle.truffle.api.dsl.Specialization;
 import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.interop.Message;
 import com.oracle.truffle.api.interop.MessageResolution;
 import com.oracle.truffle.api.interop.Resolve;
+import com.oracle.truffle.api.interop.UnknownIdentifierException;
+import com.oracle.truffle.api.interop.UnsupportedMessageException;
+import com.oracle.truffle.api.interop.UnsupportedTypeException;
+import com.oracle.truffle.api.nodes.DirectCallNode;
 import com.oracle.truffle.api.nodes.ExplodeLoop;
 import com.oracle.truffle.api.nodes.Node;
+import java.math.BigInteger;
 
 @MessageResolution(receiverType = SelfObject.class)
 final class SelfInterop {
@@ -55,30 +61,102 @@ final class SelfInterop {
     static abstract class Unbox extends Node {
 
         Object access(SelfObject obj) {
-            return SelfObject.findWrappedValue(obj).get();
+            Object value = SelfObject.findWrappedValue(obj).get();
+            if (value instanceof BigInteger) {
+                // closest interop primitive
+                return ((BigInteger) value).doubleValue();
+            }
+            return value;
+        }
+    }
+
+    /** Byte vectors are arrays of integers for other languages. */
+    @Resolve(message = "HAS_SIZE")
+    static abstract class HasSize extends Node {
+
+        Object access(SelfObject obj) {
+            return obj instanceof SelfByteVector;
+        }
+    }
+
+    @Resolve(message = "GET_SIZE")
+    static abstract class GetSize extends Node {
+
+        Object access(SelfObject obj) {
+            return bytes(obj, Message.GET_SIZE).size();
+        }
+    }
+
+    @Resolve(message = "READ")
+    static abstract class Read extends Node {
+
+        Object access(SelfObject obj, Object index) {
+            final SelfByteVector bytes = bytes(obj, Message.READ);
+            return bytes.get(index(bytes, index));
         }
     }
 
+    @Resolve(message = "WRITE")
+    static abstract class Write extends Node {
+
+        Object access(SelfObject obj, Object index, Object value) {
+            final SelfByteVector bytes = bytes(obj, Message.WRITE);
+            if (bytes.isReadOnly()) {
+                throw UnsupportedMessageException.raise(Message.WRITE);
+            }
+            final int at = index(bytes, index);
+            if (!(value instanceof Number) || ((Number) value).longValue() < 0 || ((Number) value).longValue() > 255) {
+                throw UnsupportedTypeException.raise(new Object[] { value });
+            }
+            bytes.put(at, ((Number) value).intValue());
+            return value;
+        }
+    }
+
+    static SelfByteVector bytes(SelfObject obj, Message message) {
+        if (obj instanceof SelfByteVector) {
+            return (SelfByteVector) obj;
+        }
+        throw UnsupportedMessageException.raise(message);
+    }
+
+    static int index(SelfByteVector bytes, Object index) {
+        if (!(index instanceof Number)) {
+            throw UnknownIdentifierException.raise(String.valueOf(index));
+        }
+        final long at = ((Number) index).longValue();
+        if (at < 0 || at >= bytes.size()) {
+            throw UnknownIdentifierException.raise(String.valueOf(at));
+        }
+        return (int) at;
+    }
+
     static abstract class InvokeMessage extends Node {
-        abstract SelfObject execute(VirtualFrame frame, SelfObject obj, String member, Object[] args);
+        abstract Object execute(VirtualFrame frame, SelfObject obj, String member, Object[] args);
 
         @Specialization(limit = "5", guards = {
             "cachedMember.equals(member)",
             "cachedArity == args.length"
         })
-        static SelfObject sendMessage(
+        static Object sendMessage(
             VirtualFrame frame,
             SelfObject obj,
             String member,
             Object[] args,
             @Cached("member") String cachedMember,
             @Cached("args.length") int cachedArity,
-            @Cached("newMessageHandler(member, cachedArity)") SelfCode message
+            @Cached("newMessageHandler(member, cachedArity)") DirectCallNode message,
+            @Cached("primitives()") SelfPrimitives primitives
         ) {
-            return message.executeMessage(frame, obj, args);
+            Object result = message.call(SelfCode.frameArguments(obj, null, args));
+            return primitives.exportValue(result);
+        }
+
+        static SelfPrimitives primitives() {
+            return SelfLanguage.getCurrent().getPrimitives();
         }
 
-        static SelfCode newMessageHandler(String message, int arity) {
+        static DirectCallNode newMessageHandler(String message, int arity) {
             CompilerAsserts.neverPartOfCompilation();
             SelfLanguage lang = SelfLanguage.getCurrent();
             SelfSelector selector = SelfSelector.keyword(message);
@@ -87,8 +165,8 @@ final class SelfInterop {
             for (int i = 0; i < arity; i++) {
                 values[i] = SelfCode.convertArgument(lang.getPrimitives(), i);
             }
-            final SelfCode msg = SelfCode.keywordMessage(receiver, selector, values);
-            return msg;
+            final SelfCode msg = SelfCode.keywordMessage(lang.getPrimitives(), receiver, selector, values);
+            return DirectCallNode.create(SelfCode.toCallTarget(lang, msg));
         }
     }
 
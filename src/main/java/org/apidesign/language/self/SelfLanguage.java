@@ -41,10 +41,13 @@
 package org.apidesign.language.self;
 
 import com.oracle.truffle.api.CallTarget;
+import com.oracle.truffle.api.CompilerDirectives;
 import com.oracle.truffle.api.Truffle;
 import com.oracle.truffle.api.TruffleLanguage;
 import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.DirectCallNode;
 import com.oracle.truffle.api.nodes.RootNode;
+import java.nio.ByteBuffer;
 
 @TruffleLanguage.Registration(name = "Self", id = "Self", characterMimeTypes = SelfTokenId.MIMETYPE)
 public final class SelfLanguage extends TruffleLanguage<SelfData> {
@@ -83,21 +86,46 @@ public final class SelfLanguage extends TruffleLanguage<SelfData> {
     SelfPrimitives getPrimitives() {
         return primitives;
     }
+
+    /** Wraps a host object to be passed around by Self code. */
+    @CompilerDirectives.TruffleBoundary
+    static Object asGuestValue(Object hostObject) {
+        return getCurrentContext(SelfLanguage.class).env.asGuestValue(hostObject);
+    }
+
+    /** Finds a {@link ByteBuffer} passed in by the host.
+     * @return the buffer or {@code null}
+     */
+    @CompilerDirectives.TruffleBoundary
+    static ByteBuffer findHostBuffer(Object value) {
+        final TruffleLanguage.Env env = getCurrentContext(SelfLanguage.class).env;
+        if (env.isHostObject(value)) {
+            Object obj = env.asHostObject(value);
+            if (obj instanceof ByteBuffer) {
+                return (ByteBuffer) obj;
+            }
+        }
+        return null;
+    }
 }
 
 final class SelfSource extends RootNode {
-    private final SelfCode node;
+    @Child
+    private DirectCallNode node;
+
+    private final SelfPrimitives primitives;
 
-    SelfSource(TruffleLanguage<?> language, SelfCode node) {
+    SelfSource(SelfLanguage language, SelfCode node) {
         super(language);
-        this.node = node;
+        this.primitives = language.getPrimitives();
+        this.node = DirectCallNode.create(SelfCode.toCallTarget(language, node));
     }
 
     @Override
     public Object execute(VirtualFrame frame) {
         final Object[] args = frame.getArguments();
         SelfObject self = (SelfObject) (args.length == 0 ? null : args[0]);
-        return node.executeMessage(frame, self);
+        return primitives.exportValue(node.call(SelfCode.frameArguments(self, null)));
     }
 
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.apidesign.language.self;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/** Shared description of slots of a {@link SelfObject}. All objects created
+ * from the same literal share one instance and keep only an array of values.
+ */
+final class SelfLayout {
+    static final int ARGUMENT = 1;
+    static final int ASSIGNABLE = 2;
+    static final int PARENT = 4;
+
+    static final SelfLayout EMPTY = new SelfLayout(new SelfSelector[0], new int[0], Collections.emptyMap());
+
+    private final SelfSelector[] names;
+    private final int[] flags;
+    private final Map<SelfSelector, Integer> indexes;
+    private final int hash;
+    private final boolean assignable;
+    private final int argumentCount;
+    @CompilerDirectives.CompilationFinal(dimensions = 1)
+    private final int[] parents;
+
+    SelfLayout(SelfSelector[] names, int[] flags, Map<SelfSelector, Integer> indexes) {
+        assert names.length == flags.length;
+        assert names.length == indexes.size();
+        this.names = names;
+        this.flags = flags;
+        this.indexes = indexes;
+        this.hash = System.identityHashCode(this);
+        boolean anyAssignable = false;
+        int parentCount = 0;
+        int args = 0;
+        for (int flag : flags) {
+            anyAssignable |= (flag & ASSIGNABLE) != 0;
+            if ((flag & ARGUMENT) != 0) {
+                args++;
+            }
+            if ((flag & PARENT) != 0) {
+                parentCount++;
+            }
+        }
+        this.assignable = anyAssignable;
+        this.argumentCount = args;
+        this.parents = new int[parentCount];
+        for (int i = 0, at = 0; at < parentCount; i++) {
+            if ((flags[i] & PARENT) != 0) {
+                parents[at++] = i;
+            }
+        }
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    int indexOf(SelfSelector name) {
+        if (names.length <= 8) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i] == name) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        Integer index = indexes.get(name);
+        return index == null ? -1 : index;
+    }
+
+    boolean contains(SelfSelector name) {
+        return indexOf(name) >= 0;
+    }
+
+    SelfSelector name(int index) {
+        return names[index];
+    }
+
+    boolean isArgument(int index) {
+        return (flags[index] & ARGUMENT) != 0;
+    }
+
+    /** Number of argument slots. */
+    int argumentCount() {
+        return argumentCount;
+    }
+
+    boolean isAssignable(int index) {
+        return (flags[index] & ASSIGNABLE) != 0;
+    }
+
+    boolean isParent(int index) {
+        return (flags[index] & PARENT) != 0;
+    }
+
+    /** Number of parent slots. */
+    int parentCount() {
+        return parents.length;
+    }
+
+    /** Index of the slot holding {@code nth} parent. */
+    int parentIndex(int nth) {
+        return parents[nth];
+    }
+
+    /** Has at least one assignable slot. */
+    boolean hasAssignable() {
+        return assignable;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "SelfLayout" + Arrays.toString(names);
+    }
+}
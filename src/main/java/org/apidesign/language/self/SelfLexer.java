@@ -164,8 +164,13 @@ final class SelfLexer implements Lexer<SelfTokenId> {
                                     return token(SelfTokenId.EQUAL);
                                 case '.':
                                     return token(SelfTokenId.DOT);
+                                case '^':
+                                    return token(SelfTokenId.CARET);
                             }
                         }
+                        if (input.readLength() == 2 && ch == '<' && input.readText().charAt(1) == '-') {
+                            return token(SelfTokenId.ARROW);
+                        }
                         return token(SelfTokenId.OPERATOR);
                     }
                 case '_':
@@ -274,10 +279,17 @@ final class SelfLexer implements Lexer<SelfTokenId> {
             switch (ch) {
                 case '.':
                     if (floatLiteral) {
+                        input.backup(1);
                         return token(SelfTokenId.NUMBER);
-                    } else {
-                        floatLiteral = true;
                     }
+                    int next = input.read();
+                    input.backup(1);
+                    if (next < '0' || next > '9') {
+                        // statement separator, not a decimal point
+                        input.backup(1);
+                        return token(SelfTokenId.NUMBER);
+                    }
+                    floatLiteral = true;
                     break;
                 case '0':
                 case '1':
@@ -347,7 +359,8 @@ final class SelfLexer implements Lexer<SelfTokenId> {
             }
             SelfTokenId id;
             if (':' == ch) {
-                id = Character.isLowerCase(first) ? SelfTokenId.KEYWORD_LOWERCASE : SelfTokenId.KEYWORD;
+                // _Primitive: starts a keyword message like a lowercase keyword
+                id = Character.isLowerCase(first) || '_' == first ? SelfTokenId.KEYWORD_LOWERCASE : SelfTokenId.KEYWORD;
             } else {
                 input.backup(1); // backup the extra char (or EOF)
                 switch (input.readText().toString()) {
@@ -361,13 +374,26 @@ final class SelfLexer implements Lexer<SelfTokenId> {
                         id = SelfTokenId.RESEND;
                         break;
                     default:
-                        id = SelfTokenId.IDENTIFIER;
+                        id = isDirectedResend() ? SelfTokenId.RESEND : SelfTokenId.IDENTIFIER;
                 }
             }
             return token(id);
         }
     }
 
+    /** Identifier immediately followed by a dot and a message, as
+     * {@code parent.foo}, names the parent slot to resend to.
+     */
+    private boolean isDirectedResend() {
+        if (input.read() != '.') {
+            input.backup(1);
+            return false;
+        }
+        int ch = input.read();
+        input.backup(2);
+        return Character.isLowerCase(ch);
+    }
+
     static class BasicNode {
 
         private final String name;
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.apidesign.language.self;
+
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/** Cache of lookups done by megamorphic sends, one per {@link SelfPrimitives}.
+ * A fixed size table indexed by a hash of receiver's layout and the selector.
+ * Entries are immutable and the table is read and written without locking:
+ * a lost update only means another miss. An entry remembers the assumptions
+ * of the parents it searched and is ignored once any of them is invalidated.
+ */
+final class SelfLookupCache {
+    private static final int SIZE = 1024;
+    private final SelfPrimitives primitives;
+    private final Entry[] entries = new Entry[SIZE];
+
+    SelfLookupCache(SelfPrimitives primitives) {
+        this.primitives = primitives;
+    }
+
+    /** Looks the selector up in any value, including primitive ones. */
+    @CompilerDirectives.TruffleBoundary
+    Object lookup(Object receiver, SelfSelector selector) {
+        SelfObject prototype = primitives.prototypeOf(receiver);
+        if (prototype != null) {
+            return lookup(prototype, selector);
+        }
+        return receiver instanceof SelfObject ? lookup((SelfObject) receiver, selector) : null;
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    Object lookup(SelfObject receiver, SelfSelector selector) {
+        final SelfLayout layout = receiver.layout();
+        final int at = (layout.hashCode() * 31 + selector.hashCode()) & (SIZE - 1);
+        Entry entry = entries[at];
+        if (entry == null || entry.layout != layout || entry.selector != selector || !receiver.hasParents(entry.parents) || !entry.isValid()) {
+            entry = find(receiver, selector);
+            if (entry == null) {
+                return receiver.get(selector);
+            }
+            entries[at] = entry;
+        }
+        if (entry.index < 0) {
+            return null;
+        }
+        if (entry.holder == null) {
+            final Object value = receiver.valueAt(entry.index);
+            return value != null ? value : receiver.get(selector);
+        }
+        final Object value = entry.holder.valueAt(entry.index);
+        return value != null ? SelfObject.Setter.bind(value, entry.holder) : receiver.get(selector);
+    }
+
+    /** Searches the receiver and its parents.
+     * @return an entry or {@code null} if the result can't be cached
+     */
+    private static Entry find(SelfObject receiver, SelfSelector selector) {
+        int index = receiver.layout().indexOf(selector);
+        if (index >= 0) {
+            if (receiver.valueAt(index) == null) {
+                // unset local slot, other objects with the layout may differ
+                return null;
+            }
+            return new Entry(receiver, selector, null, index, new Assumption[0]);
+        }
+        Set<SelfObject> visited = SelfObject.newVisitedSet();
+        SelfObject at = SelfObject.findHolder(receiver.parents(), selector, visited);
+        List<Assumption> collected = new ArrayList<>();
+        for (SelfObject obj : visited) {
+            obj.lookupAssumptions(selector, collected);
+        }
+        Assumption[] assumptions = collected.toArray(new Assumption[collected.size()]);
+        if (at == null) {
+            return new Entry(receiver, selector, null, -1, assumptions);
+        }
+        return new Entry(receiver, selector, at, at.layout().indexOf(selector), assumptions);
+    }
+
+    private static final class Entry {
+        final SelfLayout layout;
+        final SelfObject[] parents;
+        final SelfSelector selector;
+        final SelfObject holder;
+        final int index;
+        final Assumption[] assumptions;
+
+        Entry(SelfObject receiver, SelfSelector selector, SelfObject holder, int index, Assumption[] assumptions) {
+            this.layout = receiver.layout();
+            this.parents = receiver.parents();
+            this.selector = selector;
+            this.holder = holder;
+            this.index = index;
+            this.assumptions = assumptions;
+        }
+
+        boolean isValid() {
+            for (Assumption assumption : assumptions) {
+                if (!assumption.isValid()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
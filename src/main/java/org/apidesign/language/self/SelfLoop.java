@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.apidesign.language.self;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.FrameSlotKind;
+import com.oracle.truffle.api.frame.FrameUtil;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.LoopNode;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.nodes.RepeatingNode;
+
+/** Iteration primitives. Loops are executed by Truffle {@link LoopNode}s,
+ * so long running ones get compiled with on-stack replacement and don't
+ * consume the stack.
+ */
+final class SelfLoop {
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private SelfLoop() {
+    }
+
+    /** {@code [ condition ] whileTrue: [ body ]} with both blocks being
+     * literals is evaluated in place.
+     * @return the loop or {@code null} if the send doesn't have such shape
+     */
+    static SelfCode inlinedWhile(SelfPrimitives primitives, SelfCode receiver, SelfSelector selector, SelfCode[] args) {
+        final boolean expected;
+        switch (selector.toString()) {
+            case "whileTrue:":
+                expected = true;
+                break;
+            case "whileFalse:":
+                expected = false;
+                break;
+            default:
+                return null;
+        }
+        if (!SelfCode.isBlockLiteral(receiver) || !SelfCode.isBlockLiteral(args[0])) {
+            return null;
+        }
+        return new While(primitives, expected, SelfCode.inline(receiver), SelfCode.inline(args[0]));
+    }
+
+    /** Code of {@code whileTrue:} and {@code whileFalse:} slots of blocks. */
+    static SelfCode whileLoop(SelfPrimitives primitives, boolean expected) {
+        return new While(primitives, expected, new Value(SelfCode.self()), new Value(SelfCode.argument(0)));
+    }
+
+    /** Code of {@code timesRepeat:} slot of integers. */
+    static SelfCode timesRepeat(SelfPrimitives primitives) {
+        return new Count(primitives, SelfCode.constant(1), SelfCode.self(), SelfCode.argument(0), false);
+    }
+
+    /** Code of {@code to:Do:} slot of integers. The block gets the index. */
+    static SelfCode toDo(SelfPrimitives primitives) {
+        return new Count(primitives, SelfCode.self(), SelfCode.argument(0), SelfCode.argument(1), true);
+    }
+
+    /** Evaluates to {@code false} after {@code whileTrue:} and to
+     * {@code true} after {@code whileFalse:}.
+     */
+    private static final class While extends SelfCode {
+        private final SelfPrimitives primitives;
+        private final boolean expected;
+        @Child
+        private LoopNode loop;
+
+        While(SelfPrimitives primitives, boolean expected, SelfCode condition, SelfCode body) {
+            this.primitives = primitives;
+            this.expected = expected;
+            this.loop = Truffle.getRuntime().createLoopNode(new WhileBody(primitives, expected, condition, body));
+        }
+
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            loop.executeLoop(frame);
+            return primitives.valueOf(!expected);
+        }
+    }
+
+    private static final class WhileBody extends Node implements RepeatingNode {
+        private final SelfPrimitives primitives;
+        private final boolean expected;
+        @Child
+        private SelfCode condition;
+        @Child
+        private SelfCode body;
+
+        WhileBody(SelfPrimitives primitives, boolean expected, SelfCode condition, SelfCode body) {
+            this.primitives = primitives;
+            this.expected = expected;
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        public boolean executeRepeating(VirtualFrame frame) {
+            if (condition.executeMessage(frame) != primitives.valueOf(expected)) {
+                return false;
+            }
+            body.executeMessage(frame);
+            return true;
+        }
+    }
+
+    /** Counts from one value to another, inclusive. Evaluates to the
+     * receiver.
+     */
+    private static final class Count extends SelfCode {
+        @Child
+        private SelfCode from;
+        @Child
+        private LoopNode loop;
+
+        Count(SelfPrimitives primitives, SelfCode from, SelfCode to, SelfCode block, boolean passIndex) {
+            this.from = from;
+            this.loop = Truffle.getRuntime().createLoopNode(new CountBody(primitives, to, block, passIndex));
+        }
+
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            final CountBody body = (CountBody) loop.getRepeatingNode();
+            if (body.index == null) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                body.index = frame.getFrameDescriptor().findOrAddFrameSlot(body, FrameSlotKind.Long);
+            }
+            frame.setLong(body.index, SelfLoop.toLong(from.executeMessage(frame)));
+            loop.executeLoop(frame);
+            return SelfCode.self(frame);
+        }
+    }
+
+    private static final class CountBody extends Node implements RepeatingNode {
+        private final SelfPrimitives primitives;
+        private final boolean passIndex;
+        @CompilerDirectives.CompilationFinal
+        FrameSlot index;
+        @Child
+        private SelfCode to;
+        @Child
+        private SelfCode block;
+        @Child
+        private SelfCode.Evaluate evaluate = SelfCode.Evaluate.create();
+
+        CountBody(SelfPrimitives primitives, SelfCode to, SelfCode block, boolean passIndex) {
+            this.primitives = primitives;
+            this.to = to;
+            this.block = block;
+            this.passIndex = passIndex;
+        }
+
+        @Override
+        public boolean executeRepeating(VirtualFrame frame) {
+            final long at = FrameUtil.getLongSafe(frame, index);
+            if (at > SelfLoop.toLong(to.executeMessage(frame))) {
+                return false;
+            }
+            final Object[] args = passIndex ? new Object[] { primitives.valueOf(at) } : NO_ARGS;
+            evaluate.executeEvaluate(block.executeMessage(frame), args);
+            frame.setLong(index, at + 1);
+            return true;
+        }
+    }
+
+    private static final class Value extends SelfCode {
+        @Child
+        private SelfCode block;
+        @Child
+        private SelfCode.Evaluate evaluate = SelfCode.Evaluate.create();
+
+        Value(SelfCode block) {
+            this.block = block;
+        }
+
+        @Override
+        Object executeMessage(VirtualFrame frame) {
+            return evaluate.executeEvaluate(block.executeMessage(frame), NO_ARGS);
+        }
+    }
+
+    private static long toLong(Object number) {
+        if (number instanceof Integer) {
+            return (int) number;
+        }
+        if (number instanceof Long) {
+            return (long) number;
+        }
+        return toLongSlow(number);
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    private static long toLongSlow(Object number) {
+        if (number instanceof Number) {
+            return ((Number) number).longValue();
+        }
+        throw new IllegalStateException("Not a number: " + number);
+    }
+}
@@ -40,35 +40,256 @@
  */
 package org.apidesign.language.self;
 
+import com.oracle.truffle.api.Assumption;
 import com.oracle.truffle.api.CallTarget;
 import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.TruffleException;
+import com.oracle.truffle.api.frame.MaterializedFrame;
 import com.oracle.truffle.api.interop.ForeignAccess;
 import com.oracle.truffle.api.interop.TruffleObject;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
+import com.oracle.truffle.api.nodes.Node;
 import java.util.Arrays;
-import java.util.LinkedHashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.Optional;
 import java.util.function.BiFunction;
 
 class SelfObject implements Cloneable, TruffleObject {
+    private static final Object[] NO_VALUES = new Object[0];
+
     private final boolean block;
-    private final Map<String, Object> slots;
+    private final SelfLayout layout;
+    private Object[] values;
     private final CallTarget code;
     private final SelfObject parent;
+    private Assumption[] unchanged;
+    private Setter[] setters;
+    private boolean[] written;
+    /** The values array is shared with a clone or a prototype. */
+    private boolean shared;
 
-    private SelfObject(Map<String, Object> slots, CallTarget code, SelfObject parent, boolean block) {
-        this.slots = slots;
+    private SelfObject(SelfLayout layout, Object[] values, CallTarget code, SelfObject parent, boolean block) {
+        assert layout.size() == values.length;
+        this.layout = layout;
+        this.values = values;
         this.code = code;
         this.parent = parent;
         this.block = block;
     }
 
-    Object get(String name) {
-        Object v = slots == null ? null : slots.get(name);
-        if (v == null && parent != null) {
-            v = parent.get(name);
+    /** Object without slots inheriting from given parent. */
+    SelfObject(SelfObject parent) {
+        this(SelfLayout.EMPTY, NO_VALUES, null, parent, false);
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    Object get(SelfSelector name) {
+        SelfObject holder = findHolder(this, name, newVisitedSet());
+        if (holder == null) {
+            return null;
+        }
+        Object v = holder.values[holder.layout.indexOf(name)];
+        return holder == this ? v : Setter.bind(v, holder);
+    }
+
+    /** Finds the object holding the slot. A local slot wins, otherwise
+     * all the parents are searched and have to agree on the holder.
+     * @param visited objects searched so far, to stop on cycles and diamonds
+     * @return the holder or {@code null}
+     */
+    static SelfObject findHolder(SelfObject at, SelfSelector name, Set<SelfObject> visited) {
+        if (at == null || !visited.add(at)) {
+            return null;
+        }
+        int index = at.layout.indexOf(name);
+        if (index != -1 && at.values[index] != null) {
+            return at;
+        }
+        return findHolder(at.parents(), name, visited);
+    }
+
+    static SelfObject findHolder(SelfObject[] parents, SelfSelector name, Set<SelfObject> visited) {
+        SelfObject found = null;
+        for (SelfObject p : parents) {
+            SelfObject holder = findHolder(p, name, visited);
+            if (holder != null) {
+                if (found != null && found != holder) {
+                    throw new AmbiguousLookup(name, found, holder);
+                }
+                found = holder;
+            }
+        }
+        return found;
+    }
+
+    /** Error raised when two parents provide different slots for a selector. */
+    static final class AmbiguousLookup extends RuntimeException implements TruffleException {
+        private static final long serialVersionUID = 1L;
+
+        @CompilerDirectives.TruffleBoundary
+        AmbiguousLookup(SelfSelector name, SelfObject first, SelfObject second) {
+            super("Ambiguous lookup of " + name + " in " + first + " and " + second);
+        }
+
+        @Override
+        public Node getLocation() {
+            return null;
+        }
+    }
+
+    static Set<SelfObject> newVisitedSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    SelfLayout layout() {
+        return layout;
+    }
+
+    Object valueAt(int index) {
+        return values[index];
+    }
+
+    /** Parent given to the object by the runtime, not visible as a slot. */
+    SelfObject parent() {
+        return parent;
+    }
+
+    /** Number of parents: the parent slots followed by {@link #parent()}, if any. */
+    final int parentCount() {
+        return layout.parentCount() + (parent == null ? 0 : 1);
+    }
+
+    final SelfObject parentAt(int nth) {
+        if (nth < layout.parentCount()) {
+            Object value = values[layout.parentIndex(nth)];
+            return value instanceof SelfObject ? (SelfObject) value : null;
+        }
+        return parent;
+    }
+
+    final SelfObject[] parents() {
+        SelfObject[] arr = new SelfObject[parentCount()];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = parentAt(i);
+        }
+        return arr;
+    }
+
+    /** Checks the parents are the expected ones. */
+    @ExplodeLoop
+    final boolean hasParents(SelfObject[] expected) {
+        if (parentCount() != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (parentAt(i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    CallTarget code() {
+        return code;
+    }
+
+    /** Valid as long as the slot is not assigned. Lookups that found their
+     * result in the slot, or went through the parent slot, may cache the
+     * result while it holds.
+     */
+    final Assumption unchanged(int index) {
+        if (unchanged == null) {
+            unchanged = new Assumption[values.length];
+        }
+        if (unchanged[index] == null) {
+            unchanged[index] = Truffle.getRuntime().createAssumption("Slot unchanged");
+        }
+        return unchanged[index];
+    }
+
+    /** Collects assumptions of a lookup searching this object: the parent
+     * slots and the slot of given selector, unless it has been written
+     * and isn't going to be treated as a constant.
+     * @param selector the searched selector or {@code null}
+     */
+    final void lookupAssumptions(SelfSelector selector, Collection<Assumption> assumptions) {
+        for (int i = 0; i < layout.parentCount(); i++) {
+            assumptions.add(unchanged(layout.parentIndex(i)));
+        }
+        int index = selector == null ? -1 : layout.indexOf(selector);
+        if (index >= 0 && !layout.isParent(index) && !isWritten(index)) {
+            assumptions.add(unchanged(index));
+        }
+    }
+
+    private void slotChanged(int index) {
+        if (unchanged != null && unchanged[index] != null) {
+            CompilerDirectives.transferToInterpreter();
+            unchanged[index].invalidate();
+            unchanged[index] = null;
+        }
+    }
+
+    /** Stores new value into an assignable slot. Invalidates lookups that
+     * treated the slot as a constant or went through it, if it is a parent.
+     * Sends to this object guard its parents themselves.
+     */
+    final void assign(int index, Object value) {
+        if (shared) {
+            values = values.clone();
+            shared = false;
+        }
+        values[index] = value;
+        if (!layout.isParent(index) && !isWritten(index)) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            if (written == null) {
+                written = new boolean[values.length];
+            }
+            written[index] = true;
+        }
+        slotChanged(index);
+    }
+
+    private Setter setter(int index) {
+        if (setters == null) {
+            setters = new Setter[values.length];
+        }
+        Setter setter = setters[index];
+        if (setter == null) {
+            setter = setters[index] = new Setter(this, index);
         }
-        return v;
+        return setter;
+    }
+
+    /** Has the slot been modified since the object was created? */
+    final boolean isWritten(int index) {
+        return written != null && written[index];
+    }
+
+    /** Shallow copy sharing layout, code and parent. The values are
+     * shared as well, until the copy or the original assigns a slot.
+     * Contains no boundaries and allocates no array.
+     */
+    SelfObject copy() {
+        return new SelfObject(layout, shareValues(), code, parent, block).markShared();
+    }
+
+    final Object[] shareValues() {
+        if (!shared && values.length > 0) {
+            shared = true;
+        }
+        return values;
+    }
+
+    final SelfObject markShared() {
+        shared = values.length > 0;
+        return this;
     }
 
     static Builder newBuilder() {
@@ -79,9 +300,9 @@ class SelfObject implements Cloneable, TruffleObject {
     static Builder newBuilder(SelfObject toCopy) {
         Builder b = new Builder();
         b.code(toCopy.code);
-        if (toCopy.slots != null) {
-            b.slots = new LinkedHashMap<>(toCopy.slots);
-        }
+        b.layout = toCopy.layout;
+        b.values = toCopy.values;
+        b.size = toCopy.values.length;
         if (toCopy instanceof Wrapper) {
             b.wrapper(((Wrapper) toCopy).value);
         }
@@ -97,41 +318,31 @@ class SelfObject implements Cloneable, TruffleObject {
         return SelfInteropForeign.ACCESS;
     }
 
-    CallTarget blockCode() {
-        return block ? code : null;
+    boolean isBlock() {
+        return block;
     }
 
-    SelfObject evalSelf(SelfObject self, Object[] values) {
-        if (code == null) {
-            return this;
-        } else {
-            return (SelfObject) code.call(this, self, values);
-        }
+    /** Has code to execute when the object is found as a result of a send. */
+    boolean isMethod() {
+        return code != null && !block;
     }
 
-    @CompilerDirectives.TruffleBoundary
-    final SelfObject cloneWithArgs(SelfObject parent, Object[] args) {
-        assert code != null;
-        Map<String, Object> slotsClone;
-        if (slots == null) {
-            slotsClone = null;
-        } else {
-            slotsClone = new LinkedHashMap<>();
-            int index = 0;
-            for (Map.Entry<String, Object> e : slots.entrySet()) {
-                if (e.getKey().startsWith(":")) {
-                    slotsClone.put(e.getKey().substring(1), args[index++]);
-                } else {
-                    slotsClone.put(e.getKey(), e.getValue());
-                }
-            }
-            assert index == args.length : "Slots " + slotsClone + " args: " + Arrays.toString(args);
-        }
-        return new SelfObject(slotsClone, code, parent, block);
+    /**
+     * @param outer frame of the defining activation or {@code null} when
+     *   the block doesn't access it
+     */
+    static SelfObject closure(SelfObject block, Object self, MaterializedFrame outer) {
+        assert block.block;
+        return new Closure(block.code, block.layout.argumentCount(), self, outer);
     }
 
     static final class Builder {
-        private Map<String, Object> slots;
+        private SelfLayout layout = SelfLayout.EMPTY;
+        private Object[] values = NO_VALUES;
+        private int size;
+        private Map<SelfSelector, Integer> indexes;
+        private SelfSelector[] names;
+        private int[] flags;
         private CallTarget code;
         private boolean block;
         private Object wrapper;
@@ -142,19 +353,42 @@ class SelfObject implements Cloneable, TruffleObject {
             return this;
         }
 
-        Builder code(SelfLanguage lang, BiFunction<SelfObject, Object[], SelfObject> fn) {
+        Builder code(SelfLanguage lang, BiFunction<Object, Object[], Object> fn) {
             code = SelfCode.toCallTarget(lang, SelfCode.compute(fn));
             return this;
         }
 
         Builder argument(String name) {
-            slots().put(name, "");
-            return this;
+            final String id = name.startsWith(":") ? name.substring(1) : name;
+            return define(id, SelfLayout.ARGUMENT, null);
         }
 
         Builder slot(String name, Object value) {
-            slots().put(name, value);
-            return this;
+            return define(name, 0, value);
+        }
+
+        /** Defines slot {@code name} and its assignment slot {@code name:}. */
+        Builder assignable(String name, Object value) {
+            return assignable(name, SelfLayout.ASSIGNABLE, value);
+        }
+
+        /** Defines slot {@code name} whose value is searched by lookups, when
+         * the receiver doesn't have the slot.
+         */
+        Builder parentSlot(String name, Object value, boolean assignable) {
+            if (!(value instanceof SelfObject)) {
+                throw new IllegalStateException("Parent slot " + name + " has to be an object: " + value);
+            }
+            if (assignable) {
+                return assignable(name, SelfLayout.PARENT | SelfLayout.ASSIGNABLE, value);
+            }
+            return define(name, SelfLayout.PARENT, value);
+        }
+
+        private Builder assignable(String name, int flag, Object value) {
+            define(name, flag, value);
+            final int index = indexes.get(SelfSelector.keyword(name));
+            return define(name + ":", 0, new Setter(null, index));
         }
 
         Builder parent(SelfObject parent) {
@@ -163,17 +397,49 @@ class SelfObject implements Cloneable, TruffleObject {
         }
 
         SelfObject build() {
+            if (layout == null) {
+                layout = new SelfLayout(Arrays.copyOf(names, size), Arrays.copyOf(flags, size), indexes);
+                indexes = null;
+            }
+            final Object[] copy = size == 0 ? NO_VALUES : Arrays.copyOf(values, size);
+            if (code != null) {
+                SelfCode.initializeFrame(code, layout, copy);
+            }
             if (wrapper != null) {
-                return new Wrapper(parent, slots, wrapper);
+                return new Wrapper(parent, layout, copy, wrapper);
             }
-            return new SelfObject(slots, code, parent, block);
+            return new SelfObject(layout, copy, code, parent, block);
         }
 
-        private Map<String,Object> slots() {
-            if (slots == null) {
-                slots = new LinkedHashMap<>();
+        private Builder define(String id, int flag, Object value) {
+            final SelfSelector name = SelfSelector.keyword(id);
+            if (indexes == null) {
+                indexes = new HashMap<>();
+                names = new SelfSelector[size + 4];
+                flags = new int[size + 4];
+                for (int i = 0; i < size; i++) {
+                    names[i] = layout.name(i);
+                    flags[i] = (layout.isArgument(i) ? SelfLayout.ARGUMENT : 0) | (layout.isAssignable(i) ? SelfLayout.ASSIGNABLE : 0)
+                        | (layout.isParent(i) ? SelfLayout.PARENT : 0);
+                    indexes.put(names[i], i);
+                }
+                values = Arrays.copyOf(values, size + 4);
+            }
+            Integer at = indexes.get(name);
+            if (at == null) {
+                if (size == names.length) {
+                    names = Arrays.copyOf(names, size * 2);
+                    flags = Arrays.copyOf(flags, size * 2);
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                at = size++;
+                names[at] = name;
+                indexes.put(name, at);
             }
-            return slots;
+            flags[at] = flag;
+            values[at] = value;
+            layout = null;
+            return this;
         }
 
         Builder wrapper(Object obj) {
@@ -187,20 +453,98 @@ class SelfObject implements Cloneable, TruffleObject {
         }
     }
 
+    /** Block evaluated in a method. Remembers the activation frame of the
+     * method, so the block code can access its arguments and locals.
+     */
+    static final class Closure extends SelfObject {
+        private final int arity;
+        private final Object self;
+        private final MaterializedFrame outer;
+
+        Closure(CallTarget code, int arity, Object self, MaterializedFrame outer) {
+            super(SelfLayout.EMPTY, NO_VALUES, code, null, true);
+            this.arity = arity;
+            this.self = self;
+            this.outer = outer;
+        }
+
+        @Override
+        SelfObject copy() {
+            return new Closure(code(), arity, self, outer);
+        }
+
+        /** Number of arguments the block expects. */
+        int arity() {
+            return arity;
+        }
+
+        Object value(Object... args) {
+            return code().call(frameArguments(args));
+        }
+
+        Object[] frameArguments(Object... args) {
+            return SelfCode.frameArguments(self, outer, args);
+        }
+    }
+
+    /** Value of an assignment slot. Stores its argument into the slot at
+     * {@code index} of the receiver or of the parent it has been found in.
+     */
+    static final class Setter {
+        final SelfObject holder;
+        final int index;
+
+        Setter(SelfObject holder, int index) {
+            this.holder = holder;
+            this.index = index;
+        }
+
+        Object assign(Object receiver, Object value) {
+            final SelfObject target = holder != null ? holder : (SelfObject) receiver;
+            target.assign(index, value);
+            return receiver;
+        }
+
+        /** Assignment slot found in a parent writes into the parent.
+         * The bound setter is created once per holder and slot.
+         */
+        static Object bind(Object value, SelfObject holder) {
+            if (value instanceof Setter && ((Setter) value).holder == null) {
+                return holder.setter(((Setter) value).index);
+            }
+            return value;
+        }
+    }
+
     private static final class Wrapper<T> extends SelfObject {
         private final T value;
 
-        Wrapper(SelfObject parent, Map<String, Object> slots, T value) {
-            super(slots, null, parent, false);
+        Wrapper(SelfObject parent, SelfLayout layout, Object[] values, T value) {
+            super(layout, values, null, parent, false);
             this.value = value;
         }
 
+        @Override
+        SelfObject copy() {
+            return new Wrapper<>(parent(), layout(), shareValues(), value).markShared();
+        }
+
+        @Override
+        boolean isWrapper() {
+            return true;
+        }
+
         @Override
         public String toString() {
             return value.toString();
         }
     }
 
+    /** Wraps a host value like a boolean or a text. */
+    boolean isWrapper() {
+        return false;
+    }
+
     static Optional<Object> findWrappedValue(Object obj) {
         while (obj instanceof SelfObject) {
             if (obj instanceof Wrapper) {
@@ -60,18 +60,21 @@ final class SelfParser {
         this.primitives = primitives;
         this.parser = new PEParser();
         // create the rules
-        Rule<SelfObject> statement = parser.rule("statement");
+        Rule<Object> statement = parser.rule("statement");
         Rule<SelfObject> objectLiteral = parser.rule("object");
         Rule<SelfCode> exprlist = parser.rule("exprlist");
-        Rule<SelfObject> constant = parser.rule("constant");
+        Rule<Object> constant = parser.rule("constant");
         Rule<SelfCode> unaryLevel = parser.rule("unaryLevel");
         Rule<SelfCode> binaryLevel = parser.rule("binaryLevel");
         Rule<SelfCode> keywordLevel = parser.rule("keywordLevel");
         Rule<SelfCode> expression = parser.rule("expression");
 
         Element<ListItem<IdArg>> slotId = alt(
-                ref(SelfTokenId.IDENTIFIER, (t) -> {
-                    return new ListItem<>(null, new IdArg(t, null));
+                seq(ref(SelfTokenId.IDENTIFIER), opt(ref(SelfTokenId.OPERATOR)), (t, star) -> {
+                    if (star.isPresent() && !"*".contentEquals(star.get().text())) {
+                        throw new IllegalStateException("Unexpected " + star.get().text() + " after slot " + t.text());
+                    }
+                    return new ListItem<>(null, new IdArg(t, null, star.isPresent()));
                 }),
                 seq(ref(SelfTokenId.KEYWORD_LOWERCASE), opt(alt(
                         seq(
@@ -106,7 +109,7 @@ final class SelfParser {
                     }
                 }),
                 seq(ref(SelfTokenId.OPERATOR), opt(ref(SelfTokenId.IDENTIFIER)), (op, id) -> {
-                    return new ListItem<>(null, new IdArg(op, null));
+                    return new ListItem<>(null, new IdArg(op, id.orElse(null)));
                 })
         );
 
@@ -118,12 +121,14 @@ final class SelfParser {
                         SelfSelector messageSelector = IdArg.toSelector(idsAndArgs);
                         IdArg a = idsAndArgs.item;
                         if (a.arg != null && c instanceof SelfObject) {
-                            ListItem<IdArg> at = idsAndArgs;
-                            while (at != null) {
-                                final String argName = ":" + at.item.arg.text();
-                                c = SelfObject.newBuilder((SelfObject) c).argument(argName).build();
-                                at = at.prev;
-                            }
+                            SelfObject.Builder withArgs = SelfObject.newBuilder((SelfObject) c);
+                            ListItem.firstToLast(idsAndArgs, (item) -> {
+                                withArgs.argument(":" + item.arg.text());
+                            });
+                            c = withArgs.build();
+                        }
+                        if (a.parent) {
+                            return SlotInfo.parent(messageSelector.toString(), mutable, c);
                         }
                         return new SlotInfo(messageSelector.toString(), mutable, false, c);
                     }
@@ -137,7 +142,7 @@ final class SelfParser {
         Element<ListItem<SlotInfo>> slotsDef = alt(
             ref(SelfTokenId.BAR, ListItem::<SlotInfo>empty),
             seq(slot, extraSlots, ref(SelfTokenId.BAR), (t, m, u) -> {
-                return new ListItem<>(m, t);
+                return ListItem.firstAndNewer(t, m);
             })
         );
 
@@ -145,26 +150,31 @@ final class SelfParser {
                 ref(SelfTokenId.LPAREN), alt(
                     seq(ref(SelfTokenId.BAR), slotsDef, opt(exprlist), ref(SelfTokenId.RPAREN), (bar, slts, expr, rparen) -> {
                         SelfObject.Builder builder = SelfObject.newBuilder();
-                        while (slts != null) {
-                            if (slts.item.argument) {
-                                builder.argument(slts.item.id.toString());
+                        ListItem.firstToLast(slts, (info) -> {
+                            if (info.argument) {
+                                builder.argument(info.id.toString());
+                            } else if (info.parent) {
+                                builder.parentSlot(info.id.toString(), info.value, info.mutable);
+                            } else if (info.mutable) {
+                                builder.assignable(info.id.toString(), info.value);
                             } else {
-                                builder.slot(slts.item.id.toString(), slts.item.value);
+                                builder.slot(info.id.toString(), info.value);
                             }
-                            slts = slts.prev;
-                        }
+                        });
                         if (expr.isPresent()) {
-                            builder.code(toCallTarget(expr.get()));
+                            builder.code(toCallTarget(SelfCode.method(expr.get())));
                         }
                         return builder;
                     }),
                     seq(exprlist, ref(SelfTokenId.RPAREN), (expr, rparen) -> {
-                        return SelfObject.newBuilder().code(toCallTarget(expr));
+                        return SelfObject.newBuilder().code(toCallTarget(SelfCode.method(expr)));
                     }),
                     ref(SelfTokenId.RPAREN, (rparen) -> SelfObject.newBuilder())
                 ),
                 (t, u) -> {
-                    return u.build();
+                    SelfObject obj = u.build();
+                    SelfCode.bindResends(obj);
+                    return obj;
                 }
         );
 
@@ -172,14 +182,17 @@ final class SelfParser {
                 ref(SelfTokenId.LBRACKET), alt(
                     seq(ref(SelfTokenId.BAR), slotsDef, opt(exprlist), ref(SelfTokenId.RBRACKET), (bar, slts, expr, rparen) -> {
                         SelfObject.Builder builder = SelfObject.newBuilder();
-                        while (slts != null) {
-                            if (slts.item.argument) {
-                                builder.argument(slts.item.id.toString());
+                        ListItem.firstToLast(slts, (info) -> {
+                            if (info.argument) {
+                                builder.argument(info.id.toString());
+                            } else if (info.parent) {
+                                builder.parentSlot(info.id.toString(), info.value, info.mutable);
+                            } else if (info.mutable) {
+                                builder.assignable(info.id.toString(), info.value);
                             } else {
-                                builder.slot(slts.item.id.toString(), slts.item.value);
+                                builder.slot(info.id.toString(), info.value);
                             }
-                            slts = slts.prev;
-                        }
+                        });
                         if (expr.isPresent()) {
                             builder.code(toCallTarget(expr.get()));
                         }
@@ -199,38 +212,46 @@ final class SelfParser {
 
         statement.define(alt(constant));
 
-        final Element<SelfObject> constantDef = alt(
+        final Element<Object> constantDef = alt(
             ref(SelfTokenId.BOOLEAN, (t) -> {
                 return primitives.valueOf(Boolean.valueOf(t.text().toString()));
             }),
             ref(SelfTokenId.STRING, (t) -> {
-                return primitives.valueOf(t.text().toString());
+                return primitives.valueOf(stringContents(t.text()));
             }),
             ref(SelfTokenId.NUMBER, (t) -> {
-                return primitives.valueOf(Integer.valueOf(t.text().toString()));
+                return primitives.parseNumber(t.text().toString());
             }),
             objectLiteral
         );
         constant.define(constantDef);
 
-        Element<Object> unaryExprHead = alt(constant, ref(SelfTokenId.IDENTIFIER));
+        Element<Object> unaryExprHead = alt(constant, ref(SelfTokenId.IDENTIFIER),
+            seq(ref(SelfTokenId.RESEND), ref(SelfTokenId.DOT), (resend, dot) -> {
+                String parentName = resend.text().toString();
+                return SelfCode.resend("resend".equals(parentName) ? null : SelfSelector.keyword(parentName));
+            })
+        );
         Element<ListItem<Token<SelfTokenId>>> unaryExprTail = rep(
             ref(SelfTokenId.IDENTIFIER),
             ListItem::<Token<SelfTokenId>>empty, ListItem::new, ListItem::self
         );
         unaryLevel.define(seq(unaryExprHead, unaryExprTail, (t, u) -> {
             SelfCode[] receiver = { null };
-            if (t instanceof SelfObject) {
-                // constant
-                receiver[0] = SelfCode.constant((SelfObject) t);
-            } else {
+            if (t instanceof SelfCode) {
+                // resend
+                receiver[0] = (SelfCode) t;
+            } else if (t instanceof Token) {
                 final SelfSelector selector = SelfSelector.keyword(((Token<?>)t).text().toString());
                 // identifier - default receiver is self
-                receiver[0] = SelfCode.unaryMessage(SelfCode.self(), selector);
+                receiver[0] = SelfCode.unaryMessage(primitives, SelfCode.self(), selector);
+            } else {
+                // constant
+                receiver[0] = SelfCode.constant(t);
             }
             ListItem.firstToLast(u, (item) -> {
-                final SelfSelector msg = SelfSelector.keyword(u.item.text().toString());
-                receiver[0] = SelfCode.unaryMessage(receiver[0], msg);
+                final SelfSelector msg = SelfSelector.keyword(item.text().toString());
+                receiver[0] = SelfCode.unaryMessage(primitives, receiver[0], msg);
             });
             return receiver[0];
         }));
@@ -257,7 +278,7 @@ final class SelfParser {
                         previousText[0] = operator;
                         SelfCode arg = (SelfCode) opArg[1];
                         final SelfSelector msg = SelfSelector.keyword(operator);
-                        tree[0] = SelfCode.binaryMessage(tree[0], msg, arg);
+                        tree[0] = SelfCode.binaryMessage(primitives, tree[0], msg, arg);
                     });
                     return tree[0];
                 }
@@ -274,20 +295,23 @@ final class SelfParser {
             return ListItem.firstAndNewer(new SelectorArg(selectorPart.text().toString(), arg), subsequent);
         });
         keywordLevel.define(seq(keywordSeq, (selectorAndArgList) -> {
-            return SelectorArg.createKeywordInvocation(selectorAndArgList, SelfCode.self());
+            return SelectorArg.createKeywordInvocation(primitives, selectorAndArgList, SelfCode.self());
         }));
         expression.define(alt(keywordLevel, seq(
             binaryLevel, opt(keywordSeq), (t, u) -> {
                 if (u.isPresent()) {
-                    return SelectorArg.createKeywordInvocation(u.get(), t);
+                    return SelectorArg.createKeywordInvocation(primitives, u.get(), t);
                 } else {
                     return t;
                 }
             }
         )));
-        exprlist.define(seq(expression, rep(seq(ref(SelfTokenId.DOT), expression, ListItem::second),
+        Element<SelfCode> statementExpr = alt(expression, seq(ref(SelfTokenId.CARET), expression, (caret, value) -> {
+            return SelfCode.nonLocalReturn(value);
+        }));
+        exprlist.define(seq(statementExpr, rep(seq(ref(SelfTokenId.DOT), statementExpr, ListItem::second),
             ListItem::<SelfCode>empty, ListItem::new, ListItem::self), (head, tail) -> {
-            ListItem<SelfCode> whole = new ListItem<>(tail, head);
+            ListItem<SelfCode> whole = ListItem.firstAndNewer(head, tail);
             SelfCode[] arr = ListItem.toArray(whole, SelfCode[]::new);
             return SelfCode.block(arr);
         }));
@@ -302,9 +326,17 @@ final class SelfParser {
         final Token<SelfTokenId> id;
         final Token<SelfTokenId> arg;
 
+        /** slot name followed by {@code *} */
+        final boolean parent;
+
         IdArg(Token<SelfTokenId> id, Token<SelfTokenId> arg) {
+            this(id, arg, false);
+        }
+
+        IdArg(Token<SelfTokenId> id, Token<SelfTokenId> arg, boolean parent) {
             this.id = id;
             this.arg = arg;
+            this.parent = parent;
         }
 
         static SelfSelector toSelector(ListItem<IdArg> args) {
@@ -327,7 +359,7 @@ final class SelfParser {
             this.arg = arg;
         }
 
-        static SelfCode createKeywordInvocation(ListItem<SelectorArg> selectorAndArgList, final SelfCode self) {
+        static SelfCode createKeywordInvocation(SelfPrimitives primitives, ListItem<SelectorArg> selectorAndArgList, final SelfCode self) {
             int size = ListItem.size(selectorAndArgList);
             String[] selectorParts = new String[size];
             SelfCode[] args = new SelfCode[size];
@@ -339,7 +371,7 @@ final class SelfParser {
                 head = head.prev;
             }
             SelfSelector selector = SelfSelector.keyword(selectorParts);
-            return SelfCode.keywordMessage(self, selector, args);
+            return SelfCode.keywordMessage(primitives, self, selector, args);
         }
     }
 
@@ -423,15 +455,25 @@ final class SelfParser {
             return new SlotInfo(text, false, true, null);
         }
 
+        private static SlotInfo parent(CharSequence text, boolean mutable, Object value) {
+            return new SlotInfo(text, mutable, false, true, value);
+        }
+
         private final CharSequence id;
         private final boolean mutable;
         private final Object value;
         private final boolean argument;
+        private final boolean parent;
 
         public SlotInfo(CharSequence id, boolean mutable, boolean argument, Object value) {
+            this(id, mutable, argument, false, value);
+        }
+
+        private SlotInfo(CharSequence id, boolean mutable, boolean argument, boolean parent, Object value) {
             this.id = id;
             this.mutable = mutable;
             this.argument = argument;
+            this.parent = parent;
             this.value = value;
         }
 
@@ -442,4 +484,9 @@ final class SelfParser {
             return value.toString();
         }
     }
+
+    /** Text of a string literal without the quotes. */
+    static String stringContents(CharSequence literal) {
+        return literal.subSequence(1, literal.length() - 1).toString();
+    }
 }
@@ -40,17 +40,33 @@
  */
 package org.apidesign.language.self;
 
-import com.oracle.truffle.api.CallTarget;
-import java.util.Objects;
-import java.util.Optional;
-import static org.apidesign.language.self.SelfObject.findWrappedValue;
+import com.oracle.truffle.api.CompilerDirectives;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 final class SelfPrimitives {
+    private static final int SMALL_MIN = -1024;
+    private static final int SMALL_MAX = 1024;
+    private static final Integer[] SMALL_NUMBERS = new Integer[SMALL_MAX - SMALL_MIN + 1];
+    static {
+        for (int i = 0; i < SMALL_NUMBERS.length; i++) {
+            SMALL_NUMBERS[i] = SMALL_MIN + i;
+        }
+    }
+
     private final SelfLanguage lang;
     private final SelfObject TRUE;
     private final SelfObject FALSE;
     private final SelfObject NUMBERS;
+    private final SelfObject FLOATS;
+    private final SelfObject BLOCKS;
     private final SelfObject TEXTS;
+    private final SelfObject MESSAGES;
+    private final SelfObject VECTORS;
+    private final SelfVector EMPTY_VECTOR;
+    private final SelfObject BYTE_VECTORS;
+    private final SelfByteVector EMPTY_BYTE_VECTOR;
+    private final SelfLookupCache LOOKUPS = new SelfLookupCache(this);
 
     SelfPrimitives(SelfLanguage lang) {
         this.lang = lang;
@@ -58,7 +74,13 @@ final class SelfPrimitives {
             wrapper(Boolean.TRUE).
             slot("not", SelfObject.newBuilder().code(lang, (self, __) -> valueOf(false)).build()).
             slot("ifTrue:False:", SelfObject.newBuilder().argument(":t").argument(":f").code(lang, (self, args) -> {
-                return evalBlock(self, (SelfObject) self.get("t"));
+                return evalBlock(args[0]);
+            }).build()).
+            slot("ifTrue:", SelfObject.newBuilder().argument(":t").code(lang, (self, args) -> {
+                return evalBlock(args[0]);
+            }).build()).
+            slot("ifFalse:", SelfObject.newBuilder().argument(":f").code(lang, (self, args) -> {
+                return self;
             }).build()).
             build();
 
@@ -66,66 +88,220 @@ final class SelfPrimitives {
             wrapper(Boolean.FALSE).
             slot("not", SelfObject.newBuilder().code(lang, (self, __) -> valueOf(true)).build()).
             slot("ifTrue:False:", SelfObject.newBuilder().argument(":t").argument(":f").code(lang, (self, args) -> {
-                return evalBlock(self, (SelfObject) self.get("f"));
+                return evalBlock(args[1]);
+            }).build()).
+            slot("ifTrue:", SelfObject.newBuilder().argument(":t").code(lang, (self, args) -> {
+                return self;
+            }).build()).
+            slot("ifFalse:", SelfObject.newBuilder().argument(":f").code(lang, (self, args) -> {
+                return evalBlock(args[0]);
             }).build()).
             build();
 
-        this.NUMBERS = SelfObject.newBuilder().
-            slot("+", SelfObject.newBuilder().argument(":b").code(lang, (self, arg) -> {
-                Optional<Object> valueArg = findWrappedValue(self.get("b"));
-                Optional<Object> valueNum = findWrappedValue(self);
-                if (valueArg.isPresent() && valueNum.isPresent()) {
-                    if (valueArg.get() instanceof Number && valueNum.get() instanceof Number) {
-                        int res = ((Number) valueNum.get()).intValue() + ((Number) valueArg.get()).intValue();
-                        return valueOf(res);
-                    }
-                }
-                return valueOf(self.toString() + Objects.toString(arg[0]));
-            }).build()).
-            slot("-", SelfObject.newBuilder().argument(":b").code(lang, (self, arg) -> {
-                Optional<Object> valueArg = findWrappedValue(self.get("b"));
-                Optional<Object> valueNum = findWrappedValue(self);
-                if (valueArg.isPresent() && valueNum.isPresent()) {
-                    if (valueArg.get() instanceof Number && valueNum.get() instanceof Number) {
-                        int res = ((Number) valueNum.get()).intValue() - ((Number) valueArg.get()).intValue();
-                        return valueOf(res);
-                    }
-                }
-                throw new IllegalStateException(valueArg + " " + valueNum);
+        this.NUMBERS = arithmetic(lang).
+            slot("timesRepeat:", method(lang, SelfLoop.timesRepeat(this), ":block")).
+            slot("to:Do:", method(lang, SelfLoop.toDo(this), ":end", ":block")).
+            build();
+        this.FLOATS = arithmetic(lang).build();
+        SelfObject.Builder blocks = SelfObject.newBuilder().
+            slot("whileTrue:", method(lang, SelfLoop.whileLoop(this, true), ":body")).
+            slot("whileFalse:", method(lang, SelfLoop.whileLoop(this, false), ":body"));
+        for (String value : SelfCode.VALUE_SELECTORS) {
+            SelfSelector selector = SelfSelector.keyword(value);
+            String[] arguments = new String[selector.arity()];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = ":arg" + i;
+            }
+            blocks.slot(value, method(lang, SelfCode.blockValue(this, selector), arguments));
+        }
+        this.BLOCKS = blocks.build();
+
+        this.TEXTS = SelfObject.newBuilder().
+            slot("+", SelfObject.newBuilder().argument(":b").code(lang, (self, args) -> {
+                return concat(self, args[0]);
             }).build()).
-            slot("<", SelfObject.newBuilder().argument(":b").code(lang, (self, arg) -> {
-                Optional<Object> valueArg = findWrappedValue(self.get("b"));
-                Optional<Object> valueNum = findWrappedValue(self);
-                if (valueArg.isPresent() && valueNum.isPresent()) {
-                    if (valueArg.get() instanceof Number && valueNum.get() instanceof Number) {
-                        boolean res = ((Number) valueNum.get()).intValue() < ((Number) valueArg.get()).intValue();
-                        return valueOf(res);
-                    }
-                }
-                return valueOf(false);
+            build();
+        this.MESSAGES = SelfObject.newBuilder().
+            slot("selector", SelfObject.newBuilder().code(lang, (self, __) -> {
+                return valueOf(((SelfCode.SentMessage) SelfObject.findWrappedValue(self).get()).selector.toString());
             }).build()).
+            slot("sendTo:", method(lang, new SelfCode.SendTo(this), ":target")).
+            build();
+        this.VECTORS = SelfObject.newBuilder().
+            slot("at:", method(lang, SelfVectorFactory.AtNodeGen.create(SelfCode.self(), SelfCode.argument(0)), ":index")).
+            slot("at:Put:", method(lang, SelfVectorFactory.AtPutNodeGen.create(SelfCode.self(), SelfCode.argument(0), SelfCode.argument(1)), ":index", ":value")).
+            slot("size", method(lang, SelfVectorFactory.SizeNodeGen.create(SelfCode.self()))).
+            slot("copySize:", method(lang, SelfVectorFactory.CopySizeNodeGen.create(SelfCode.self(), SelfCode.argument(0), SelfCode.constant(valueOf(0))), ":size")).
+            slot("copySize:FillingWith:", method(lang, SelfVectorFactory.CopySizeNodeGen.create(SelfCode.self(), SelfCode.argument(0), SelfCode.argument(1)), ":size", ":filler")).
+            build();
+        this.EMPTY_VECTOR = SelfVector.empty(VECTORS);
+        this.BYTE_VECTORS = SelfObject.newBuilder().
+            slot("at:", method(lang, SelfByteVectorFactory.AtNodeGen.create(SelfCode.self(), SelfCode.argument(0)), ":index")).
+            slot("at:Put:", method(lang, SelfByteVectorFactory.AtPutNodeGen.create(SelfCode.self(), SelfCode.argument(0), SelfCode.argument(1)), ":index", ":value")).
+            slot("at:PutAll:From:Size:", method(lang, SelfByteVectorFactory.PutAllNodeGen.create(SelfCode.self(),
+                SelfCode.argument(0), SelfCode.argument(1), SelfCode.argument(2), SelfCode.argument(3)), ":index", ":source", ":from", ":length")).
+            slot("size", method(lang, SelfByteVectorFactory.SizeNodeGen.create(SelfCode.self()))).
+            slot("copySize:", method(lang, SelfByteVectorFactory.CopySizeNodeGen.create(SelfCode.self(), SelfCode.argument(0)), ":size")).
+            slot("buffer", method(lang, SelfByteVectorFactory.BufferNodeGen.create(SelfCode.self()))).
             build();
+        this.EMPTY_BYTE_VECTOR = SelfByteVector.empty(BYTE_VECTORS);
+    }
+
+    private SelfObject.Builder arithmetic(SelfLanguage lang) {
+        SelfObject.Builder numbers = SelfObject.newBuilder();
+        for (String selector : SelfArithmetic.SELECTORS) {
+            SelfCode code = SelfArithmetic.create(this, SelfSelector.keyword(selector), SelfCode.self(), SelfCode.argument(0));
+            numbers.slot(selector, method(lang, code, ":b"));
+        }
+        return numbers;
+    }
+
+    private static SelfObject method(SelfLanguage lang, SelfCode code, String... arguments) {
+        SelfObject.Builder method = SelfObject.newBuilder();
+        for (String argument : arguments) {
+            method.argument(argument);
+        }
+        return method.code(SelfCode.toCallTarget(lang, code)).build();
+    }
 
-        this.TEXTS = SelfObject.newBuilder().build();
+    /** Booleans, texts, messages and the prototypes of primitive values
+     * are shared and clone to themselves.
+     */
+    boolean isImmutable(SelfObject obj) {
+        return obj.isWrapper() || obj == NUMBERS || obj == FLOATS || obj == BLOCKS
+            || obj == TEXTS || obj == MESSAGES || obj == VECTORS || obj == BYTE_VECTORS;
     }
 
     SelfObject valueOf(boolean value) {
         return value ? TRUE : FALSE;
     }
 
-    private SelfObject evalBlock(SelfObject self, SelfObject block, Object... args) {
-        CallTarget code = block.blockCode();
-        SelfObject res;
-        if (code != null) {
-            res = (SelfObject) code.call(self, block, args);
-        } else {
-            res = block;
+    private Object evalBlock(Object block, Object... args) {
+        if (block instanceof SelfObject.Closure) {
+            return ((SelfObject.Closure) block).value(args);
+        }
+        return block;
+    }
+
+    /** Integers are represented as plain Java values. Boxed instances of
+     * small numbers are shared.
+     */
+    Object valueOf(int number) {
+        if (number >= SMALL_MIN && number <= SMALL_MAX) {
+            return SMALL_NUMBERS[number - SMALL_MIN];
+        }
+        return number;
+    }
+
+    /** Integers grow from {@code int} to {@code long} to {@link BigInteger}.
+     * Always uses the smallest representation able to hold the value.
+     */
+    Object valueOf(long number) {
+        if (number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) {
+            return valueOf((int) number);
+        }
+        return number;
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    Object valueOf(BigInteger number) {
+        if (number.bitLength() < Long.SIZE) {
+            return valueOf(number.longValue());
+        }
+        return number;
+    }
+
+    /** Parses integer, radix ({@code 16r27fe}) and float literals.
+     * Floats are represented as plain {@code double} values.
+     */
+    @CompilerDirectives.TruffleBoundary
+    Object parseNumber(String text) {
+        int radix = text.indexOf('r') >= 0 ? text.indexOf('r') : text.indexOf('R');
+        if (radix >= 0) {
+            final String digits = text.substring(radix + 1);
+            final int base = Integer.parseInt(text.substring(0, radix));
+            return valueOf(new BigInteger(digits, base));
+        }
+        if (text.indexOf('.') >= 0 || text.indexOf('e') >= 0 || text.indexOf('E') >= 0) {
+            return Double.parseDouble(text);
+        }
+        return valueOf(new BigInteger(text));
+    }
+
+    /** Converts a value to be returned to other languages. Big integers
+     * aren't interop values, they are wrapped into an object inheriting
+     * from the numbers prototype.
+     */
+    @CompilerDirectives.TruffleBoundary
+    Object exportValue(Object value) {
+        if (value instanceof BigInteger) {
+            return SelfObject.newBuilder().parent(NUMBERS).wrapper(value).build();
+        }
+        return value;
+    }
+
+    /** Reverse of {@link #exportValue(java.lang.Object)}. */
+    @CompilerDirectives.TruffleBoundary
+    Object importValue(SelfObject value) {
+        if (value.parent() == NUMBERS) {
+            return SelfObject.findWrappedValue(value).orElse(value);
+        }
+        return value;
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    private Object concat(Object text, Object other) {
+        Object a = SelfObject.findWrappedValue(text).orElse(null);
+        Object b = SelfObject.findWrappedValue(other).orElse(null);
+        if (!(a instanceof String) || !(b instanceof String)) {
+            throw new IllegalStateException(text + " + " + other);
+        }
+        return valueOf((String) a + (String) b);
+    }
+
+    /** Object holding slots shared by all values of given primitive type.
+     * @return the prototype or {@code null} if the value is a {@link SelfObject}
+     *   other than a block
+     */
+    SelfObject prototypeOf(Object value) {
+        if (value instanceof SelfObject.Closure) {
+            return BLOCKS;
         }
-        return res;
+        if (value instanceof Double) {
+            return FLOATS;
+        }
+        if (value instanceof Number) {
+            return NUMBERS;
+        }
+        return null;
+    }
+
+    /** Looks the selector up in any value. Used by megamorphic sends,
+     * the results are cached for this language only.
+     * @return the slot value or {@code null}
+     */
+    Object lookup(Object receiver, SelfSelector selector) {
+        return LOOKUPS.lookup(receiver, selector);
+    }
+
+    /** Message passed to {@code doesNotUnderstand:}. */
+    SelfObject message(SelfCode.SentMessage message) {
+        return SelfObject.newBuilder().parent(MESSAGES).wrapper(message).build();
+    }
+
+    /** Empty vector to create other vectors by {@code copySize:}. */
+    SelfVector emptyVector() {
+        return EMPTY_VECTOR;
+    }
+
+    /** Empty byte vector to create other byte vectors by {@code copySize:}. */
+    SelfByteVector emptyByteVector() {
+        return EMPTY_BYTE_VECTOR;
     }
 
-    SelfObject valueOf(int number) {
-        return SelfObject.newBuilder().wrapper(number).parent(NUMBERS).build();
+    /** Byte vector sharing content of given buffer. */
+    SelfByteVector valueOf(ByteBuffer buffer) {
+        return SelfByteVector.wrap(BYTE_VECTORS, buffer);
     }
 
     SelfObject valueOf(String text) {
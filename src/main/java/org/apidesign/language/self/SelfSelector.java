@@ -41,21 +41,75 @@
 package org.apidesign.language.self;
 
 import com.oracle.truffle.api.CompilerDirectives;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/** Canonical name of a message. There is only one instance per name,
+ * selectors can be compared by identity.
+ */
 final class SelfSelector {
+    private static final ConcurrentMap<String, SelfSelector> SYMBOLS = new ConcurrentHashMap<>();
+
     private final String keyword;
+    private final int hash;
+    private final int arity;
 
     private SelfSelector(String k) {
         this.keyword = k;
+        this.hash = k.hashCode();
+        this.arity = computeArity(k);
     }
 
     @CompilerDirectives.TruffleBoundary
     static SelfSelector keyword(String... lowerCase) {
+        if (lowerCase.length == 1) {
+            return intern(lowerCase[0]);
+        }
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < lowerCase.length; i++) {
             sb.append(lowerCase[i]);
         }
-        return new SelfSelector(sb.toString());
+        return intern(sb.toString());
+    }
+
+    private static SelfSelector intern(String name) {
+        SelfSelector selector = SYMBOLS.get(name);
+        if (selector == null) {
+            selector = SYMBOLS.computeIfAbsent(name, SelfSelector::new);
+        }
+        return selector;
+    }
+
+    private static int computeArity(String name) {
+        if (name.isEmpty()) {
+            return 0;
+        }
+        final char first = name.charAt(0);
+        if (first != '_' && first != ':' && !Character.isLetter(first)) {
+            return 1;
+        }
+        int colons = 0;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) == ':') {
+                colons++;
+            }
+        }
+        return colons;
+    }
+
+    /** Number of arguments the message takes. */
+    int arity() {
+        return arity;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj;
     }
 
     @Override
@@ -72,6 +72,7 @@ enum SelfTokenId implements TokenId {
     DOT(".", "separator"),
     EQUAL("=", "separator"),
     ARROW("<-", "separator"),
+    CARET("^", "separator"),
     ERROR(null, "error");
 
     public static final String MIMETYPE = "text/x-self";
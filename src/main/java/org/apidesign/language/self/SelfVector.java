@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.apidesign.language.self;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.dsl.Fallback;
+import com.oracle.truffle.api.dsl.NodeChild;
+import com.oracle.truffle.api.dsl.NodeChildren;
+import com.oracle.truffle.api.dsl.Specialization;
+import java.util.Arrays;
+
+/** Indexable collection. Elements are kept unboxed in an {@code int[]}
+ * as long as all of them are integers. The first float switches the
+ * storage to {@code double[]}, which stores {@code int} values converted
+ * to floats. The first store of any other value, including {@code long}
+ * and big integers that a {@code double} can't represent exactly, switches
+ * the storage to {@code Object[]}.
+ */
+final class SelfVector extends SelfObject {
+    private static final int[] NO_INTS = new int[0];
+
+    private Object storage;
+
+    private SelfVector(SelfObject parent, Object storage) {
+        super(parent);
+        this.storage = storage;
+    }
+
+    static SelfVector empty(SelfObject parent) {
+        return new SelfVector(parent, NO_INTS);
+    }
+
+    boolean isInt() {
+        return storage instanceof int[];
+    }
+
+    boolean isDouble() {
+        return storage instanceof double[];
+    }
+
+    boolean isObject() {
+        return storage instanceof Object[];
+    }
+
+    int[] ints() {
+        return (int[]) storage;
+    }
+
+    double[] doubles() {
+        return (double[]) storage;
+    }
+
+    Object[] objects() {
+        return (Object[]) storage;
+    }
+
+    int size() {
+        if (isInt()) {
+            return ints().length;
+        }
+        if (isDouble()) {
+            return doubles().length;
+        }
+        return objects().length;
+    }
+
+    /** Can the value be stored without changing the storage? */
+    boolean accepts(Object value) {
+        if (isInt()) {
+            return value instanceof Integer;
+        }
+        if (isDouble()) {
+            return value instanceof Double || value instanceof Integer;
+        }
+        return true;
+    }
+
+    Object get(int index) {
+        if (isInt()) {
+            return ints()[index];
+        }
+        if (isDouble()) {
+            return doubles()[index];
+        }
+        return objects()[index];
+    }
+
+    /** Switches from {@code int[]} to {@code double[]} storage. */
+    @CompilerDirectives.TruffleBoundary
+    void widen() {
+        final int[] ints = ints();
+        double[] arr = new double[ints.length];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = ints[i];
+        }
+        storage = arr;
+    }
+
+    /** Switches to {@code Object[]} storage. */
+    @CompilerDirectives.TruffleBoundary
+    void generalize() {
+        Object[] arr = new Object[size()];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = get(i);
+        }
+        storage = arr;
+    }
+
+    /** Copy with given size. New elements are set to the filler. The copy
+     * keeps the storage of this vector, if it accepts the filler.
+     */
+    @CompilerDirectives.TruffleBoundary
+    SelfVector copySize(int size, Object filler) {
+        if (size < 0) {
+            throw new IllegalStateException("Negative size " + size);
+        }
+        final int oldSize = size();
+        if (size > oldSize && !accepts(filler)) {
+            SelfVector copy = new SelfVector(parent(), storage);
+            if (isInt() && filler instanceof Double) {
+                copy.widen();
+            } else {
+                copy.generalize();
+            }
+            return copy.copySize(size, filler);
+        }
+        final Object newStorage;
+        if (isInt()) {
+            int[] arr = Arrays.copyOf(ints(), size);
+            if (size > oldSize) {
+                Arrays.fill(arr, oldSize, size, (Integer) filler);
+            }
+            newStorage = arr;
+        } else if (isDouble()) {
+            double[] arr = Arrays.copyOf(doubles(), size);
+            if (size > oldSize) {
+                Arrays.fill(arr, oldSize, size, ((Number) filler).doubleValue());
+            }
+            newStorage = arr;
+        } else {
+            Object[] arr = Arrays.copyOf(objects(), size);
+            if (size > oldSize) {
+                Arrays.fill(arr, oldSize, size, filler);
+            }
+            newStorage = arr;
+        }
+        return new SelfVector(parent(), newStorage);
+    }
+
+    @Override
+    SelfObject copy() {
+        return copySize(size(), null);
+    }
+
+    @Override
+    public String toString() {
+        if (isInt()) {
+            return Arrays.toString(ints());
+        }
+        if (isDouble()) {
+            return Arrays.toString(doubles());
+        }
+        return Arrays.toString(objects());
+    }
+
+    static void checkIndex(SelfVector vector, int index, int size) {
+        if (index < 0 || index >= size) {
+            CompilerDirectives.transferToInterpreter();
+            throw new IllegalStateException("Index " + index + " out of bounds of " + vector);
+        }
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    static IllegalStateException notVector(String selector, Object receiver) {
+        return new IllegalStateException(selector + " failed for " + receiver);
+    }
+
+    /** Element at given index. */
+    @NodeChildren({ @NodeChild("receiver"), @NodeChild("index") })
+    abstract static class At extends SelfCode {
+        abstract Object executeAt(Object receiver, Object index);
+
+        static At create() {
+            return SelfVectorFactory.AtNodeGen.create(null, null);
+        }
+
+        @Specialization(guards = "vector.isInt()")
+        static int atInt(SelfVector vector, int index) {
+            final int[] arr = vector.ints();
+            checkIndex(vector, index, arr.length);
+            return arr[index];
+        }
+
+        @Specialization(guards = "vector.isDouble()")
+        static double atDouble(SelfVector vector, int index) {
+            final double[] arr = vector.doubles();
+            checkIndex(vector, index, arr.length);
+            return arr[index];
+        }
+
+        @Specialization(guards = "vector.isObject()")
+        static Object atObject(SelfVector vector, int index) {
+            final Object[] arr = vector.objects();
+            checkIndex(vector, index, arr.length);
+            return arr[index];
+        }
+
+        @Fallback
+        static Object failed(Object receiver, Object index) {
+            throw notVector("at:", receiver);
+        }
+    }
+
+    /** Stores an element and returns the vector. */
+    @NodeChildren({ @NodeChild("receiver"), @NodeChild("index"), @NodeChild("value") })
+    abstract static class AtPut extends SelfCode {
+        @Specialization(guards = "vector.isInt()")
+        static Object putInt(SelfVector vector, int index, int value) {
+            final int[] arr = vector.ints();
+            checkIndex(vector, index, arr.length);
+            arr[index] = value;
+            return vector;
+        }
+
+        /** {@code int} converts to {@code double} exactly. */
+        @Specialization(guards = "vector.isDouble()")
+        static Object putIntAsDouble(SelfVector vector, int index, int value) {
+            final double[] arr = vector.doubles();
+            checkIndex(vector, index, arr.length);
+            arr[index] = value;
+            return vector;
+        }
+
+        /** Not declared as {@code double}, the implicit casts would round
+         * {@code long} and {@code BigInteger} values.
+         */
+        @Specialization(guards = { "vector.isDouble()", "isDouble(value)" })
+        static Object putDouble(SelfVector vector, int index, Object value) {
+            final double[] arr = vector.doubles();
+            checkIndex(vector, index, arr.length);
+            arr[index] = (Double) value;
+            return vector;
+        }
+
+        @Specialization(guards = "vector.isObject()")
+        static Object putObject(SelfVector vector, int index, Object value) {
+            final Object[] arr = vector.objects();
+            checkIndex(vector, index, arr.length);
+            arr[index] = value;
+            return vector;
+        }
+
+        @Specialization(guards = { "vector.isInt()", "isDouble(value)" })
+        static Object putWiden(SelfVector vector, int index, Object value) {
+            checkIndex(vector, index, vector.size());
+            vector.widen();
+            vector.doubles()[index] = (Double) value;
+            return vector;
+        }
+
+        @Specialization(guards = "!vector.isObject()")
+        static Object putGeneralize(SelfVector vector, int index, Object value) {
+            checkIndex(vector, index, vector.size());
+            vector.generalize();
+            vector.objects()[index] = value;
+            return vector;
+        }
+
+        @Fallback
+        static Object failed(Object receiver, Object index, Object value) {
+            throw notVector("at:Put:", receiver);
+        }
+
+        static boolean isDouble(Object value) {
+            return value instanceof Double;
+        }
+    }
+
+    @NodeChild("receiver")
+    abstract static class Size extends SelfCode {
+        @Specialization
+        static int size(SelfVector vector) {
+            return vector.size();
+        }
+
+        @Fallback
+        static Object failed(Object receiver) {
+            throw notVector("size", receiver);
+        }
+    }
+
+    /** Resized copy of the vector. */
+    @NodeChildren({ @NodeChild("receiver"), @NodeChild("size"), @NodeChild("filler") })
+    abstract static class CopySize extends SelfCode {
+        @Specialization
+        static Object copySize(SelfVector vector, int size, Object filler) {
+            return vector.copySize(size, filler);
+        }
+
+        @Fallback
+        static Object failed(Object receiver, Object size, Object filler) {
+            throw notVector("copySize:", receiver);
+        }
+    }
+}
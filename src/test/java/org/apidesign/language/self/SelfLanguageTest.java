@@ -41,13 +41,16 @@
 package org.apidesign.language.self;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.PolyglotException;
 import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
 import org.junit.Assert;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.Assume;
 import org.junit.Before;
@@ -191,6 +194,565 @@ public class SelfLanguageTest {
         Assert.assertEquals(20, all.asInt());
     }
 
+    @Test
+    public void argumentsAreBoundInOrder() {
+        final Context ctx = Context.create();
+        Value four = ctx.eval("Self", "( | minus: n From: m = ( m - n ) | ) minus: 1 From: 5");
+        assertEquals(4, four.asInt());
+        Value three = ctx.eval("Self", "( | minus:From: = ( | :n. :m | m - n ) | ) minus: 2 From: 5");
+        assertEquals(3, three.asInt());
+    }
+
+    @Test
+    public void localSlotOfMethod() {
+        final Context ctx = Context.create();
+        Value five = ctx.eval("Self", "( | inc: n = ( | one = 1 | n + one ) | ) inc: 4");
+        assertEquals(5, five.asInt());
+    }
+
+    @Test
+    public void localMethodSlotIsInvoked() {
+        final Context ctx = Context.create();
+        Value answer = ctx.eval("Self", "( | m = ( | helper = ( 42 ) | helper ) | ) m");
+        assertEquals(42, answer.asInt());
+        Value inBlock = ctx.eval("Self", "( | m = ( | helper = ( 42 ) | [ helper ] value ) | ) m");
+        assertEquals(42, inBlock.asInt());
+        Value keyword = ctx.eval("Self", "( | m = ( | twice: n = ( n * 2 ) | twice: 21 ) | ) m");
+        assertEquals(42, keyword.asInt());
+    }
+
+    @Test
+    public void evalMultiply() {
+        final Context ctx = Context.create();
+        Value res = ctx.eval("Self", "( | twice: n = ( n * 2 ) | ) twice: 21");
+        assertEquals(42, res.asInt());
+    }
+
+    @Test
+    public void intOverflowsToLong() {
+        final Context ctx = Context.create();
+        Value res = ctx.eval("Self", "2147483647 + 1");
+        assertEquals(2147483648L, res.asLong());
+        Value literal = ctx.eval("Self", "4294967296 - 1");
+        assertEquals(4294967295L, literal.asLong());
+    }
+
+    @Test
+    public void smallLongResultsAreNarrowedToInt() {
+        final Context ctx = Context.create();
+        // an int is kept in int[] storage, so the float later widens it to 2.0
+        Value two = ctx.eval("Self", "( | d: a Minus: b = ( a - b ). test = ( | v <- 0 | d: 4294967296 Minus: 1. d: 1 Minus: 4294967296. "
+            + "v: (_Vector copySize: 2). v at: 0 Put: (d: 3 Minus: 1). v at: 1 Put: 0.5. v at: 0 ) | ) test");
+        assertEquals("2.0", two.toString());
+    }
+
+    @Test
+    public void plusConcatenatesTexts() {
+        final Context ctx = Context.create();
+        assertEquals("ab", ctx.eval("Self", "'a' + 'b'").asString());
+        Value cat = ctx.eval("Self", "( | cat: a With: b = ( a + b ) | )");
+        assertEquals("xyz", cat.invokeMember("cat:With:", "x", "yz").asString());
+        assertEquals(3, cat.invokeMember("cat:With:", 1, 2).asInt());
+    }
+
+    @Test
+    public void plusRejectsOtherValues() {
+        final Context ctx = Context.create();
+        try {
+            Value res = ctx.eval("Self", "3 + 'x'");
+            fail("Cannot add text: " + res);
+        } catch (PolyglotException ex) {
+            assertNotEquals(ex.getMessage(), -1, ex.getMessage().indexOf("3 + x"));
+        }
+    }
+
+    @Test
+    public void longOverflowsToBigInteger() {
+        final Context ctx = Context.create();
+        Value big = ctx.eval("Self", "( | square: n = ( n * n ) | ) square: 4294967296");
+        assertEquals("18446744073709551616", big.toString());
+        Value one = ctx.eval("Self", "(9223372036854775807 + 1) - 9223372036854775807");
+        assertEquals(1, one.asInt());
+    }
+
+    @Test
+    public void floatArithmetic() {
+        final Context ctx = Context.create();
+        Value half = ctx.eval("Self", "( | half: n = ( n * 0.5 ) | ) half: 3");
+        assertEquals(1.5, half.asDouble(), 0.0);
+        Value mixed = ctx.eval("Self", "1.25 + 2");
+        assertEquals(3.25, mixed.asDouble(), 0.0);
+        Value less = ctx.eval("Self", "2 < 2.5");
+        assertTrue(less.asBoolean());
+    }
+
+    @Test
+    public void binaryMessageToObject() {
+        final Context ctx = Context.create();
+        Value res = ctx.eval("Self", "( | + n = ( n * 2 ) | ) + 21");
+        assertEquals(42, res.asInt());
+    }
+
+    @Test
+    public void conditionalWithBlocks() {
+        final Context ctx = Context.create();
+        Value max = ctx.eval("Self", "( | max: a With: b = ( a < b ifTrue: [ b ] False: [ a ] ) | ) max: 3 With: 7");
+        assertEquals(7, max.asInt());
+        Value positive = ctx.eval("Self", "( | positive: n = ( n < 0 ifTrue: [ 0 - n ] ) | ) positive: -5");
+        assertEquals(5, positive.asInt());
+        Value negative = ctx.eval("Self", "( | negative: n = ( n < 0 ifFalse: [ 0 - n ] ) | ) negative: 5");
+        assertEquals(-5, negative.asInt());
+    }
+
+    @Test
+    public void conditionalSentToOtherObject() {
+        final Context ctx = Context.create();
+        Value res = ctx.eval("Self", "( | ifTrue: t False: f = ( 42 ) | ) ifTrue: [ 1 ] False: [ 2 ]");
+        assertEquals(42, res.asInt());
+    }
+
+    @Test
+    public void loopsDontGrowStack() {
+        final Context ctx = Context.create();
+        Value times = ctx.eval("Self", "1000000 timesRepeat: [ 1 ]");
+        assertEquals(1000000, times.asInt());
+        Value to = ctx.eval("Self", "1 to: 1000000 Do: [ | :i | i + 1 ]");
+        assertEquals(1, to.asInt());
+    }
+
+    @Test
+    public void whileLoops() {
+        final Context ctx = Context.create();
+        Value inlined = ctx.eval("Self", "[ 1 < 0 ] whileTrue: [ 1 ]");
+        assertFalse(inlined.asBoolean());
+        Value sent = ctx.eval("Self", "( | loop: cond = ( cond whileFalse: [ 1 ] ) | ) loop: [ true ]");
+        assertTrue(sent.asBoolean());
+    }
+
+    @Test
+    public void megamorphicSend() {
+        final Context ctx = Context.create();
+        Value reader = ctx.eval("Self", "( | read: o = ( o v ) | )");
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 8; i++) {
+                Value obj = ctx.eval("Self", "( | x = 0. v = " + i + " | )");
+                assertEquals(i, reader.invokeMember("read:", obj).asInt());
+            }
+        }
+    }
+
+    @Test
+    public void megamorphicSendSeesChangedGrandParent() {
+        final Context ctx = Context.create();
+        Value reader = ctx.eval("Self", "( | read: o = ( o v ) | )");
+        Value mid = ctx.eval("Self", "( | q* <- ( | v = 1 | ) | )");
+        Value[] objs = new Value[8];
+        for (int i = 0; i < objs.length; i++) {
+            objs[i] = ctx.eval("Self", "( | p* <- ( | | ). x" + i + " = 0 | )");
+            objs[i].invokeMember("p:", mid);
+        }
+        for (Value obj : objs) {
+            assertEquals(1, reader.invokeMember("read:", obj).asInt());
+        }
+        mid.invokeMember("q:", ctx.eval("Self", "( | v = 2 | )"));
+        for (Value obj : objs) {
+            assertEquals(2, reader.invokeMember("read:", obj).asInt());
+        }
+    }
+
+    @Test
+    public void separateContextsDoNotShareLookups() {
+        for (int round = 0; round < 2; round++) {
+            final Context ctx = Context.create();
+            Value reader = ctx.eval("Self", "( | read: o = ( o v ) | )");
+            for (int i = 0; i < 8; i++) {
+                Value obj = ctx.eval("Self", "( | x" + i + " = 0. p* = ( | v = " + (round * 10 + i) + " | ) | )");
+                assertEquals(round * 10 + i, reader.invokeMember("read:", obj).asInt());
+            }
+        }
+    }
+
+    @Test
+    public void assignableSlot() {
+        final Context ctx = Context.create();
+        Value counter = ctx.eval("Self", "( | x <- 0. inc = ( x: x + 1 ) | )");
+        assertEquals(0, counter.invokeMember("x").asInt());
+        counter.invokeMember("inc");
+        counter.invokeMember("inc");
+        Value self = counter.invokeMember("inc");
+        assertEquals(3, self.invokeMember("x").asInt());
+    }
+
+    @Test
+    public void ownSlotConstantSeesAssignments() {
+        final Context ctx = Context.create();
+        Value obj = ctx.eval("Self", "( | x <- 1. read = ( x ) | )");
+        Value other = ctx.eval("Self", "( | p* = ( | x <- 10 | ). read = ( x ) | )");
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1, obj.invokeMember("read").asInt());
+            assertEquals(10, other.invokeMember("read").asInt());
+        }
+        for (int round = 2; round < 5; round++) {
+            obj.invokeMember("x:", round);
+            other.invokeMember("x:", round * 10);
+            assertEquals(round, obj.invokeMember("read").asInt());
+            assertEquals(round * 10, other.invokeMember("read").asInt());
+        }
+    }
+
+    @Test
+    public void literalWithAssignableSlotsIsCreatedEachTime() {
+        final Context ctx = Context.create();
+        Value factory = ctx.eval("Self", "( | make = ( ( | x <- 0 | ) ) | )");
+        Value first = factory.invokeMember("make");
+        Value second = factory.invokeMember("make");
+        first.invokeMember("x:", 5);
+        assertEquals(5, first.invokeMember("x").asInt());
+        assertEquals(0, second.invokeMember("x").asInt());
+    }
+
+    @Test
+    public void assignableLocalSlots() {
+        final Context ctx = Context.create();
+        Value sum = ctx.eval("Self", "( | sum: n = ( | s <- 0 | 1 to: n Do: [ | :i | s: s + i ]. s ) | ) sum: 100");
+        assertEquals(5050, sum.asInt());
+        Value count = ctx.eval("Self", "( | count: n = ( | i <- 0 | [ i < n ] whileTrue: [ i: i + 1 ]. i ) | ) count: 1000");
+        assertEquals(1000, count.asInt());
+    }
+
+    @Test
+    public void primitives() {
+        final Context ctx = Context.create();
+        Value doubled = ctx.eval("Self", "( | double: n = ( n _IntAdd: n ) | ) double: 21");
+        assertEquals(42, doubled.asInt());
+        Value a = ctx.eval("Self", "'abc' _At: 0");
+        assertEquals("a", a.asString());
+        Value c = ctx.eval("Self", "'abc' _At: 2");
+        assertEquals("c", c.asString());
+        Value host = ctx.eval("Self", "( | first: s = ( s _At: 0 ) | )").invokeMember("first:", "'x'");
+        assertEquals("'", host.asString());
+        Value orig = ctx.eval("Self", "( | x <- 1. copy = ( _Clone x: 5 ) | )");
+        Value copy = orig.invokeMember("copy");
+        assertEquals(5, copy.invokeMember("x").asInt());
+        assertEquals(1, orig.invokeMember("x").asInt());
+    }
+
+    @Test
+    public void unknownPrimitiveIsMessage() {
+        final Context ctx = Context.create();
+        assertEquals(3, ctx.eval("Self", "( | _foo = 3 | ) _foo").asInt());
+        assertEquals(4, ctx.eval("Self", "( | _inc: n = ( n + 1 ) | ) _inc: 3").asInt());
+    }
+
+    @Test
+    public void intPrimitivesRejectOtherValues() {
+        final Context ctx = Context.create();
+        assertEquals(2147483648L, ctx.eval("Self", "2147483647 _IntAdd: 1").asLong());
+        assertEquals(-1, ctx.eval("Self", "2147483648 _IntSub: 2147483649").asInt());
+        assertEquals(8, ctx.eval("Self", "( | f: n = ( n + 1 ) | ) f: 3 _IntAdd: 4").asInt());
+        assertEquals(6, ctx.eval("Self", "( | f: n = ( n _IntAdd: n _IntMul: 2 ) | ) f: 1 _IntAdd: 1").asInt());
+        for (String code : new String[] { "3 _IntAdd: 'x'", "1.5 _IntAdd: 2", "'x' _IntMul: 2", "() _IntLT: 1" }) {
+            try {
+                Value res = ctx.eval("Self", code);
+                fail("Primitive should fail: " + code + " = " + res);
+            } catch (PolyglotException ex) {
+                assertNotEquals(ex.getMessage(), -1, ex.getMessage().indexOf("failed for"));
+            }
+        }
+    }
+
+    @Test
+    public void cloneSharesValuesUntilAssigned() {
+        final Context ctx = Context.create();
+        Value factory = ctx.eval("Self", "( | proto = ( | x <- 1. y <- 2 | ). make: n = ( proto clone x: n ) | )");
+        Value a = factory.invokeMember("make:", 5);
+        Value b = factory.invokeMember("make:", 6);
+        assertEquals(5, a.invokeMember("x").asInt());
+        assertEquals(2, a.invokeMember("y").asInt());
+        assertEquals(6, b.invokeMember("x").asInt());
+        assertEquals(1, factory.invokeMember("proto").invokeMember("x").asInt());
+        factory.invokeMember("proto").invokeMember("y:", 3);
+        assertEquals(2, a.invokeMember("y").asInt());
+        assertEquals(3, factory.invokeMember("make:", 7).invokeMember("y").asInt());
+        assertEquals(42, ctx.eval("Self", "( | clone = ( 42 ) | ) clone").asInt());
+        assertEquals(3, ctx.eval("Self", "3 clone").asInt());
+    }
+
+    @Test
+    public void booleansCloneToThemselves() {
+        final Context ctx = Context.create();
+        assertEquals(1, ctx.eval("Self", "true clone ifTrue: [1] False: [2]").asInt());
+        assertEquals(2, ctx.eval("Self", "false clone ifTrue: [1] False: [2]").asInt());
+        assertTrue(ctx.eval("Self", "(true _Clone) _Eq: true").asBoolean());
+        assertEquals("ab", ctx.eval("Self", "'ab' clone").asString());
+    }
+
+    @Test
+    public void largeIntegersDoNotStayInDoubleVectors() {
+        final Context ctx = Context.create();
+        Value doubles = ctx.eval("Self", "(_Vector copySize: 2) at: 0 Put: 0.5");
+        doubles.invokeMember("at:Put:", 1, 9007199254740993L);
+        assertEquals(9007199254740993L, doubles.invokeMember("at:", 1).asLong());
+        assertEquals(0.5, doubles.invokeMember("at:", 0).asDouble(), 0.0);
+        Value stored = ctx.eval("Self", "((_Vector copySize: 1) at: 0 Put: 0.5) at: 0 Put: 9007199254740993");
+        assertEquals(9007199254740993L, stored.invokeMember("at:", 0).asLong());
+        Value filled = ctx.eval("Self", "((_Vector copySize: 1) at: 0 Put: 0.5) copySize: 2 FillingWith: 9007199254740993");
+        assertEquals(9007199254740993L, filled.invokeMember("at:", 1).asLong());
+        Value ints = ctx.eval("Self", "(_Vector copySize: 1) copySize: 2 FillingWith: 9007199254740993");
+        assertEquals(9007199254740993L, ints.invokeMember("at:", 1).asLong());
+    }
+
+    @Test
+    public void vectors() {
+        final Context ctx = Context.create();
+        Value squares = ctx.eval("Self", "( | squares: n = ( | v <- 0 | v: (_Vector copySize: n). 0 to: n - 1 Do: [ | :i | v at: i Put: i * i ]. v ) | ) squares: 5");
+        assertEquals(5, squares.invokeMember("size").asInt());
+        assertEquals(9, squares.invokeMember("at:", 3).asInt());
+        assertEquals("9", squares.invokeMember("at:", 3).toString());
+        squares.invokeMember("at:Put:", 4, 1.5);
+        // the first float widens the storage to double[]
+        assertEquals("9.0", squares.invokeMember("at:", 3).toString());
+        assertEquals(1.5, squares.invokeMember("at:", 4).asDouble(), 0.0);
+        squares.invokeMember("at:Put:", 2, 7);
+        assertEquals("7.0", squares.invokeMember("at:", 2).toString());
+        Value longer = squares.invokeMember("copySize:", 7);
+        assertEquals(0, longer.invokeMember("at:", 6).asInt());
+        squares.invokeMember("at:Put:", 0, "x");
+        assertEquals("x", squares.invokeMember("at:", 0).asString());
+        assertEquals("9.0", squares.invokeMember("at:", 3).toString());
+        assertEquals(5, squares.invokeMember("size").asInt());
+        Value floats = ctx.eval("Self", "(_Vector copySize: 2 FillingWith: 0.5) at: 1 Put: 2.5");
+        assertEquals(0.5, floats.invokeMember("at:", 0).asDouble(), 0.0);
+        assertEquals(2.5, floats.invokeMember("at:", 1).asDouble(), 0.0);
+        Value widened = ctx.eval("Self", "(_Vector copySize: 2) copySize: 3 FillingWith: 0.5");
+        assertEquals("0.0", widened.invokeMember("at:", 0).toString());
+        assertEquals(0.5, widened.invokeMember("at:", 2).asDouble(), 0.0);
+        assertEquals(7, ctx.eval("Self", "(_Vector copySize: 2 FillingWith: 7) _At: 1").asInt());
+        try {
+            Value res = squares.invokeMember("at:", 5);
+            fail("Index out of bounds: " + res);
+        } catch (PolyglotException ex) {
+            assertNotEquals(ex.getMessage(), -1, ex.getMessage().indexOf("out of bounds"));
+        }
+    }
+
+    @Test
+    public void byteVectors() {
+        final Context ctx = Context.create();
+        Value bytes = ctx.eval("Self", "(_ByteVector copySize: 4) at: 1 Put: 200");
+        assertEquals(200, bytes.invokeMember("at:", 1).asInt());
+        assertTrue(bytes.hasArrayElements());
+        assertEquals(4, bytes.getArraySize());
+        assertEquals(200, bytes.getArrayElement(1).asInt());
+        bytes.setArrayElement(2, 7);
+        assertEquals(7, bytes.invokeMember("at:", 2).asInt());
+        ByteBuffer view = bytes.invokeMember("buffer").asHostObject();
+        assertEquals((byte) 200, view.get(1));
+        Value copy = bytes.invokeMember("copySize:", 6);
+        assertEquals(6, copy.invokeMember("size").asInt());
+        assertEquals(0, copy.invokeMember("at:", 5).asInt());
+        copy.invokeMember("at:PutAll:From:Size:", 3, bytes, 1, 2);
+        assertEquals(200, copy.invokeMember("at:", 3).asInt());
+        assertEquals(7, copy.invokeMember("at:", 4).asInt());
+        assertEquals(0, bytes.invokeMember("at:", 3).asInt());
+        ByteBuffer host = ByteBuffer.allocateDirect(3);
+        host.put(2, (byte) 5);
+        Value reader = ctx.eval("Self", "( | last: b = ( b at: (b size - 1) ) | )");
+        assertEquals(5, reader.invokeMember("last:", host).asInt());
+        try {
+            Value res = bytes.invokeMember("at:Put:", 0, 256);
+            fail("Not a byte: " + res);
+        } catch (PolyglotException ex) {
+            assertNotEquals(ex.getMessage(), -1, ex.getMessage().indexOf("at:Put: failed"));
+        }
+    }
+
+    @Test
+    public void readOnlyHostBufferCannotBeModified() {
+        final Context ctx = Context.create();
+        ByteBuffer host = ByteBuffer.allocate(3).asReadOnlyBuffer();
+        Value writer = ctx.eval("Self", "( | first: b = ( b at: 0 ) . put: b = ( b at: 0 Put: 1 ) | )");
+        assertEquals(0, writer.invokeMember("first:", host).asInt());
+        try {
+            Value res = writer.invokeMember("put:", host);
+            fail("Read only: " + res);
+        } catch (PolyglotException ex) {
+            assertNotEquals(ex.getMessage(), -1, ex.getMessage().indexOf("at:Put: failed for readOnlyByteVector[3]"));
+        }
+        Value wrapped = ctx.eval("Self", "( | id: b = ( b ) | )").invokeMember("id:", host);
+        try {
+            wrapped.setArrayElement(0, 1);
+            fail("Read only: " + wrapped);
+        } catch (UnsupportedOperationException ex) {
+            // OK
+        }
+    }
+
+    @Test
+    public void resendFromCloneWithNewParent() {
+        final Context ctx = Context.create();
+        Value two = ctx.eval("Self", "( | proto = ( | p* <- ( | v = 1 | ). v = ( resend.v ) | ). "
+            + "run = ( | c <- 0 | c: proto clone. c p: ( | v = 2 | ). c v ) | ) run");
+        assertEquals(2, two.asInt());
+        Value objs = ctx.eval("Self", "( | proto = ( | p* <- ( | v = 1 | ). v = ( resend.v + 10 ) | ). "
+            + "other = ( | v = 5 | ). "
+            + "both = ( | a <- 0. b <- 0 | a: proto clone. b: proto clone. b p: other. (a v * 100) + b v ) | )");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1115, objs.invokeMember("both").asInt());
+        }
+    }
+
+    @Test
+    public void resend() {
+        final Context ctx = Context.create();
+        final String obj = "( | p* = ( | value = 1. add: n = ( value + n ) | ). "
+            + "value = ( resend.value + 10 ). add: n = ( (resend.add: n) * 2 ). base = ( p.value ) | )";
+        Value child = ctx.eval("Self", obj);
+        assertEquals(11, child.invokeMember("value").asInt());
+        assertEquals(24, child.invokeMember("add:", 1).asInt());
+        assertEquals(1, child.invokeMember("base").asInt());
+        Value inherited = ctx.eval("Self", obj + " add: 5");
+        assertEquals(32, inherited.asInt());
+    }
+
+    @Test
+    public void multipleParents() {
+        final Context ctx = Context.create();
+        Value sum = ctx.eval("Self", "( | pa* = ( | x = 1 | ). pb* = ( | y = 2 | ). sum = ( x + y ) | ) sum");
+        assertEquals(3, sum.asInt());
+        Value grandParent = ctx.eval("Self", "( | pa* = ( | y = 1 | ). pb* = ( | up* = ( | x = 5 | ) | ) | ) x");
+        assertEquals(5, grandParent.asInt());
+    }
+
+    @Test(expected = PolyglotException.class)
+    public void ambiguousParents() {
+        final Context ctx = Context.create();
+        Value res = ctx.eval("Self", "( | pa* = ( | x = 1 | ). pb* = ( | x = 2 | ) | ) x");
+        fail("Lookup shouldn't succeed: " + res);
+    }
+
+    @Test
+    public void ambiguousLookupIsSelfError() {
+        final Context ctx = Context.create();
+        try {
+            Value res = ctx.eval("Self", "( | pa* = ( | x = 1 | ). pb* = ( | x = 2 | ). read = ( x ) | ) read");
+            fail("Lookup shouldn't succeed: " + res);
+        } catch (PolyglotException ex) {
+            assertTrue(ex.getMessage(), ex.isGuestException());
+            assertFalse(ex.getMessage(), ex.isInternalError());
+            assertNotEquals(ex.getMessage(), -1, ex.getMessage().indexOf("Ambiguous lookup of x"));
+        }
+    }
+
+    @Test
+    public void assignableParent() {
+        final Context ctx = Context.create();
+        Value obj = ctx.eval("Self", "( | p* <- ( | v = 1 | ). one = ( | v = 1 | ). two = ( | v = 2 | ). "
+            + "read = ( v ). use: o = ( p: o ) | )");
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(1, obj.invokeMember("read").asInt());
+            }
+            obj.invokeMember("use:", obj.invokeMember("two"));
+            for (int i = 0; i < 100; i++) {
+                assertEquals(2, obj.invokeMember("read").asInt());
+            }
+            obj.invokeMember("use:", obj.invokeMember("one"));
+        }
+    }
+
+    @Test
+    public void doesNotUnderstand() {
+        final Context ctx = Context.create();
+        Value proxy = ctx.eval("Self", "( | target = ( | double: n = ( n * 2 ) | ). "
+            + "doesNotUnderstand: msg = ( msg sendTo: target ) | ) double: 21");
+        assertEquals(42, proxy.asInt());
+        Value selector = ctx.eval("Self", "( | doesNotUnderstand: msg = ( msg selector ) | ) foo: 1 Bar: 2");
+        assertEquals("foo:Bar:", selector.asString());
+        Value misses = ctx.eval("Self", "( | count <- 0. doesNotUnderstand: msg = ( count: count + 1 ). "
+            + "run = ( 1 to: 1000 Do: [ | :i | missing ]. count ) | ) run");
+        assertEquals(1000, misses.asInt());
+    }
+
+    @Test(expected = PolyglotException.class)
+    public void notUnderstoodWithoutHandler() {
+        final Context ctx = Context.create();
+        Value res = ctx.eval("Self", "( | x = 1 | ) missing");
+        fail("Send shouldn't succeed: " + res);
+    }
+
+    @Test
+    public void blockValues() {
+        final Context ctx = Context.create();
+        assertEquals(42, ctx.eval("Self", "[ 42 ] value").asInt());
+        assertEquals(2, ctx.eval("Self", "[ | :a. :b | a - b ] value: 5 With: 3").asInt());
+        Value twice = ctx.eval("Self", "( | twice: b = ( (b value: 1) + (b value: 2) ) | ) twice: [ | :x | x * 10 ]");
+        assertEquals(30, twice.asInt());
+        Value adder = ctx.eval("Self", "( | adder: n = ( [ | :x | x + n ] ). run = ( (adder: 5) value: 3 ) | ) run");
+        assertEquals(8, adder.asInt());
+        Value notBlock = ctx.eval("Self", "( | value = 7 | ) value");
+        assertEquals(7, notBlock.asInt());
+    }
+
+    @Test
+    public void blockArityIsChecked() {
+        final Context ctx = Context.create();
+        String[] wrong = {
+            "[ | :a | a ] value: 1 With: 2",
+            "[ | :a | a ] value",
+            "[ 42 ] value: 1",
+            "( | call: b = ( b value: 1 With: 2 ) | ) call: [ | :a | a ]",
+            "3 timesRepeat: [ | :i | i ]",
+            "1 to: 3 Do: [ | :a. :b | a ]",
+            "( | loop: b = ( 3 timesRepeat: b ) | ) loop: [ | :i | i ]",
+        };
+        for (String code : wrong) {
+            try {
+                Value res = ctx.eval("Self", code);
+                fail("Wrong number of arguments: " + code + " = " + res);
+            } catch (PolyglotException ex) {
+                assertNotEquals(ex.getMessage(), -1, ex.getMessage().indexOf("failed for a block with"));
+            }
+        }
+    }
+
+    @Test
+    public void nonLocalReturn() {
+        final Context ctx = Context.create();
+        Value found = ctx.eval("Self", "( | find: n = ( 1 to: 100 Do: [ | :i | n < (i * i) ifTrue: [ ^ i ] ]. 0 ) | ) find: 50");
+        assertEquals(8, found.asInt());
+        Value early = ctx.eval("Self", "( | f = ( ^ 5. 6 ) | ) f");
+        assertEquals(5, early.asInt());
+        Value nested = ctx.eval("Self", "( | outer = ( (inner: [ ^ 1 ]) + 10 ). inner: b = ( b value. 2 ) | ) outer");
+        assertEquals(1, nested.asInt());
+    }
+
+    @Test(expected = PolyglotException.class)
+    public void returnFromFinishedMethod() {
+        final Context ctx = Context.create();
+        Value res = ctx.eval("Self", "( | mk = ( [ ^ 1 ] ). run = ( mk value ) | ) run");
+        fail("Return shouldn't succeed: " + res);
+    }
+
+    @Test
+    public void tailCalls() {
+        final Context ctx = Context.create();
+        Value zero = ctx.eval("Self", "( | down: n = ( n < 1 ifTrue: 0 False: [ down: n - 1 ] ) | ) down: 1000000");
+        assertEquals(0, zero.asInt());
+        Value sum = ctx.eval("Self", "( | sum: n Acc: a = ( n < 1 ifTrue: [ a ] False: [ sum: n - 1 Acc: a + n ] ) | ) sum: 1000000 Acc: 0");
+        assertEquals(500000500000L, sum.asLong());
+        Value last = ctx.eval("Self", "( | last: n = ( n < 1 ifTrue: [ ^ 7 ]. last: n - 1 ) | ) last: 1000000");
+        assertEquals(7, last.asInt());
+    }
+
+    @Test
+    public void tailCallKeepsCapturedFrames() {
+        final Context ctx = Context.create();
+        Value first = ctx.eval("Self", "( | mk: n Acc: v = ( v at: n Put: [ n ]. n < 1 ifTrue: [ v ] False: [ mk: n - 1 Acc: v ] ). "
+            + "run = ( ((mk: 2 Acc: (_Vector copySize: 3)) at: 2) value ) | ) run");
+        assertEquals(2, first.asInt());
+    }
+
     @Test
     public void abs() {
         final Context ctx = Context.create();
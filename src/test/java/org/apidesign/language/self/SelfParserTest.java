@@ -45,6 +45,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
@@ -113,7 +114,7 @@ public class SelfParserTest {
         assertNextToken(SelfTokenId.WHITESPACE, seq);
         assertNextToken(SelfTokenId.KEYWORD, seq).text("Put:");
         assertNextToken(SelfTokenId.WHITESPACE, seq);
-        assertNextToken(SelfTokenId.KEYWORD, seq).text("_IntAdd:");
+        assertNextToken(SelfTokenId.KEYWORD_LOWERCASE, seq).text("_IntAdd:");
         assertFalse("At the end of input", seq.moveNext());
     }
 
@@ -173,6 +174,27 @@ public class SelfParserTest {
         assertFalse("At the end of input", seq.moveNext());
     }
 
+    @Test
+    public void selectorsAreInterned() {
+        SelfSelector atPut = SelfSelector.keyword("at:", "Put:");
+        assertSame(atPut, SelfSelector.keyword("at:Put:"));
+        assertEquals(2, atPut.arity());
+        assertEquals(1, SelfSelector.keyword("+").arity());
+        assertEquals(0, SelfSelector.keyword("size").arity());
+    }
+
+    @Test
+    public void numberFollowedByDot() {
+        String text = "1. 2";
+
+        TokenSequence<SelfTokenId> seq = TokenHierarchy.create(text, SelfTokenId.language()).tokenSequence(SelfTokenId.language());
+        assertNextToken(SelfTokenId.NUMBER, seq).text("1");
+        assertNextToken(SelfTokenId.DOT, seq).text(".");
+        assertNextToken(SelfTokenId.WHITESPACE, seq);
+        assertNextToken(SelfTokenId.NUMBER, seq).text("2");
+        assertFalse("At the end of input", seq.moveNext());
+    }
+
     @Test
     public void strings() {
         String text = "   'Hi' '\\t\\f\\'\\x20\\d32\\o40\\\"\\\\ \\n\n 'x'";
@@ -186,6 +208,37 @@ public class SelfParserTest {
         assertNextToken(SelfTokenId.STRING, seq).text("'x'");
         assertFalse("At the end of input", seq.moveNext());
     }
+    @Test
+    public void resends() {
+        String text = "resend.foo parent.bar: x. y";
+        TokenSequence<SelfTokenId> seq = TokenHierarchy.create(text, SelfTokenId.language()).tokenSequence(SelfTokenId.language());
+        assertNextToken(SelfTokenId.RESEND, seq).text("resend");
+        assertNextToken(SelfTokenId.DOT, seq);
+        assertNextToken(SelfTokenId.IDENTIFIER, seq).text("foo");
+        assertNextToken(SelfTokenId.WHITESPACE, seq);
+        assertNextToken(SelfTokenId.RESEND, seq).text("parent");
+        assertNextToken(SelfTokenId.DOT, seq);
+        assertNextToken(SelfTokenId.KEYWORD_LOWERCASE, seq).text("bar:");
+        assertNextToken(SelfTokenId.WHITESPACE, seq);
+        assertNextToken(SelfTokenId.IDENTIFIER, seq).text("x");
+        assertNextToken(SelfTokenId.DOT, seq);
+        assertNextToken(SelfTokenId.WHITESPACE, seq);
+        assertNextToken(SelfTokenId.IDENTIFIER, seq).text("y");
+        assertFalse("At the end of input", seq.moveNext());
+    }
+
+    @Test
+    public void caret() {
+        String text = "^ x ^^";
+        TokenSequence<SelfTokenId> seq = TokenHierarchy.create(text, SelfTokenId.language()).tokenSequence(SelfTokenId.language());
+        assertNextToken(SelfTokenId.CARET, seq);
+        assertNextToken(SelfTokenId.WHITESPACE, seq);
+        assertNextToken(SelfTokenId.IDENTIFIER, seq).text("x");
+        assertNextToken(SelfTokenId.WHITESPACE, seq);
+        assertNextToken(SelfTokenId.OPERATOR, seq).text("^^");
+        assertFalse("At the end of input", seq.moveNext());
+    }
+
     @Test
     public void comments() {
         String text = "   \"comment\"  \n \"multiline\ncomment\" ";
@@ -202,35 +255,35 @@ public class SelfParserTest {
     @Test
     public void parseCodeObject() {
         Source s = Source.newBuilder("Self", "( 1 + 2 )", "empty.sf").build();
-        Object obj = parser.parse(s).executeMessage(null, null);
+        Object obj = parser.parse(s).executeMessage(null);
         assertNotNull("Object created", obj);
     }
     @Test
     public void parseEmptyObject() {
         Source s = Source.newBuilder("Self", "()", "empty.sf").build();
-        Object obj = parser.parse(s).executeMessage(null, null);
+        Object obj = parser.parse(s).executeMessage(null);
         assertNotNull("Object created", obj);
     }
 
     @Test
     public void parseEmptyObjectWithSlots() {
         Source s = Source.newBuilder("Self", "( | | )", "empty.sf").build();
-        Object obj = parser.parse(s).executeMessage(null, null);
+        Object obj = parser.parse(s).executeMessage(null);
         assertNotNull("Object created", obj);
     }
 
     @Test
     public void parseEmptyObjectWithOneSlot() {
         Source s = Source.newBuilder("Self", "( | x = 's' | )", "empty.sf").build();
-        Object obj = parser.parse(s).executeMessage(null, null);
-        assertProperty(obj, "x", "'s'");
+        Object obj = parser.parse(s).executeMessage(null);
+        assertProperty(obj, "x", "s");
     }
 
     private void assertProperty(Object item, String propertyName, Object exp) {
         assertNotNull("Object created", item);
         assertTrue("Instance of right class: " + item, item instanceof SelfObject);
         SelfObject map = (SelfObject) item;
-        final Object value = map.get(propertyName);
+        final Object value = map.get(SelfSelector.keyword(propertyName));
         assertNotNull("Value of " + propertyName + " is set", value);
         if (exp != null) {
             assertEquals("Value of " + propertyName + " is correct", exp, value.toString());
@@ -240,30 +293,30 @@ public class SelfParserTest {
     @Test
     public void parseIdFn() {
         Source s = Source.newBuilder("Self", "( | id: n = ( ^n ) | )", "empty.sf").build();
-        Object obj = parser.parse(s).executeMessage(null, null);
+        Object obj = parser.parse(s).executeMessage(null);
         assertProperty(obj, "id:", null);
     }
 
     @Test
     public void parsePlusFn() {
         Source s = Source.newBuilder("Self", "( | plus: n = ( n + 1 ) | )", "plus.sf").build();
-        Object obj = parser.parse(s).executeMessage(null, null);
+        Object obj = parser.parse(s).executeMessage(null);
         assertProperty(obj, "plus:", null);
     }
 
     @Test
     public void parseConstantFn() {
         Source s = Source.newBuilder("Self", "( | id: n = 'e' | )", "empty.sf").build();
-        Object obj = parser.parse(s).executeMessage(null, null);
+        Object obj = parser.parse(s).executeMessage(null);
         parser.parse(s);
-        assertProperty(obj, "id:", "'e'");
+        assertProperty(obj, "id:", "e");
     }
 
     @Test
     public void parseEmptyObjectWithTwoSlots() {
         Source s = Source.newBuilder("Self", "( | x = 's' . y = 3 | )", "empty.sf").build();
-        Object obj = parser.parse(s).executeMessage(null, null);
-        assertProperty(obj, "x", "'s'");
+        Object obj = parser.parse(s).executeMessage(null);
+        assertProperty(obj, "x", "s");
         assertProperty(obj, "y", "3");
     }
 